@@ -0,0 +1,40 @@
+/**
+ * Kernel for the Burning Ship, Z_n+1 = (|Re(Z_n)| + i|Im(Z_n)|)^2 + C with Z starting at the origin.
+ */
+public final class BurningShipKernel implements FractalKernel {
+
+    @Override
+    public int iterate(double real, double imaginary, int maxIterations, double radiusSquared) {
+        int iterations = 0;
+        double zr = 0;
+        double zi = 0;
+        boolean outside = false;
+        while (iterations < maxIterations && !outside) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            double nzr = zr2 - zi2 + real;
+            double nzi = 2 * Math.abs(zr * zi) + imaginary;
+            zr = nzr;
+            zi = nzi;
+            if ((zr2 + zi2) > radiusSquared)
+                outside = true;
+            iterations++;
+        }
+        return iterations;
+    }
+
+    @Override
+    public String getId() {
+        return "burningship";
+    }
+
+    @Override
+    public double[] getInitialView() {
+        return new double[]{-2.5, 1.5, -2.0, 1.0};
+    }
+
+    @Override
+    public String toString() {
+        return "Burning Ship";
+    }
+}
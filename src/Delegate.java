@@ -3,13 +3,19 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.*;
 import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Delegate class which contains the view and controller connected to the model.
@@ -27,7 +33,9 @@ public class Delegate implements PropertyChangeListener {
     private JMenuBar menuBar;
     private JToolBar toolbar;
     private JButton drawBtn, undoBtn, redoBtn, changeIterationsBtn, changeColor;
-    private JCheckBox toggleModeBtn, toggleRatio, toggleColor;
+    private JCheckBox toggleModeBtn, toggleRatio, toggleColor, toggleEqualize, toggleDistance, toggleAntiAlias,
+            toggleJuliaPreview;
+    private JComboBox<FractalKernel> kernelBox;
 
 
     /**
@@ -103,6 +111,24 @@ public class Delegate implements PropertyChangeListener {
             }
         });
 
+        // Kernel combo box, allows user to switch which fractal formula is rendered. Resets the view.
+        kernelBox = new JComboBox<>(new FractalKernel[]{
+                new MandelbrotKernel(),
+                new JuliaKernel(-0.8, 0.156),
+                new MultibrotKernel(3),
+                new BurningShipKernel(),
+                new TricornKernel()
+        });
+        kernelBox.setMaximumSize(kernelBox.getPreferredSize());
+        kernelBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                model.setKernel((FractalKernel) kernelBox.getSelectedItem());
+                panel.createBufferedImage();
+                panel.repaint();
+            }
+        });
+
         // Toggle mode checkbox, allows user to switch between zooming and pan functionality.
         toggleModeBtn = new JCheckBox("Pan", false);
         toggleModeBtn.addActionListener(new ActionListener() {
@@ -149,6 +175,53 @@ public class Delegate implements PropertyChangeListener {
             }
         });
 
+        // Toggle equalize checkbox, allows user to spread the colors evenly over the pixels rather than the iterations.
+        toggleEqualize = new JCheckBox("Equalize", false);
+        toggleEqualize.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JCheckBox cb = (JCheckBox) e.getSource();
+                panel.equalize = cb.isSelected();
+                panel.createBufferedImage();
+                panel.repaint();
+            }
+        });
+
+        // Toggle distance checkbox, allows user to shade by estimated distance to the set to show thin filaments.
+        toggleDistance = new JCheckBox("Distance", false);
+        toggleDistance.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JCheckBox cb = (JCheckBox) e.getSource();
+                panel.distance = cb.isSelected();
+                panel.createBufferedImage();
+                panel.repaint();
+            }
+        });
+
+        // Toggle anti-alias checkbox, allows user to supersample the edges of the model to smooth them.
+        toggleAntiAlias = new JCheckBox("Anti-alias", false);
+        toggleAntiAlias.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JCheckBox cb = (JCheckBox) e.getSource();
+                panel.antiAlias = cb.isSelected();
+                panel.createBufferedImage();
+                panel.repaint();
+            }
+        });
+
+        // Toggle Julia preview checkbox, allows user to see the Julia set for the point under the cursor.
+        toggleJuliaPreview = new JCheckBox("Julia Preview", false);
+        toggleJuliaPreview.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JCheckBox cb = (JCheckBox) e.getSource();
+                panel.setJuliaPreview(cb.isSelected());
+                panel.repaint();
+            }
+        });
+
         // Random color, randomises the hue fixed value so that the color pattern changes
         changeColor = new JButton("Change Colour");
         changeColor.addActionListener(new ActionListener() {
@@ -157,6 +230,9 @@ public class Delegate implements PropertyChangeListener {
                 Random r = new Random();
                 float random = 0.0f + r.nextFloat() * (360.0f - 0.0f);
                 panel.colorHue = random;
+                if (panel.juliaPreview != null) {
+                    panel.juliaPreview.setColorHue(random);
+                }
 
                 panel.createBufferedImage();
                 panel.repaint();
@@ -169,9 +245,14 @@ public class Delegate implements PropertyChangeListener {
         toolbar.add(undoBtn);
         toolbar.add(redoBtn);
         toolbar.add(changeIterationsBtn);
+        toolbar.add(kernelBox);
         toolbar.add(toggleModeBtn);
         toolbar.add(toggleRatio);
         toolbar.add(toggleColor);
+        toolbar.add(toggleEqualize);
+        toolbar.add(toggleDistance);
+        toolbar.add(toggleAntiAlias);
+        toolbar.add(toggleJuliaPreview);
         toolbar.add(changeColor);
 
 
@@ -343,6 +424,9 @@ public class Delegate implements PropertyChangeListener {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 changeIterationsBtn.setText("Iterations: " + event.getNewValue().toString());
+                if (panel.juliaPreview != null) {
+                    panel.juliaPreview.setMax_iterations(model.getMax_iterations());
+                }
                 panel.createBufferedImage();
                 panel.repaint();
             }
@@ -355,10 +439,16 @@ public class Delegate implements PropertyChangeListener {
      * It uses booleans to determine whether zoom needs to be shown as well as if it needs to use color.
      */
     class Panel extends JPanel {
+        // Time to wait after the last resize event before rendering at the new size
+        private static final int RESIZE_DELAY = 150;
+
         private boolean zoom = true;
         private boolean drawing = false;
         private boolean displayRatio = false;
         private boolean color = true;
+        private boolean equalize = false;
+        private boolean distance = false;
+        private boolean antiAlias = false;
         private float colorHue = 3.0f;
 
         private int clickX;
@@ -370,16 +460,53 @@ public class Delegate implements PropertyChangeListener {
         private int width;
         private int height;
 
+        // Last position of the mouse over the panel, where the speculative zoom is rendered
+        private Point cursor;
+
         private BufferedImage mandelbrotImage;
 
+        // Renders the Julia set for the point under the cursor, null when the preview is turned off
+        private JuliaPreviewRenderer juliaPreview;
+
+        // Where the current image sits in the complex plane, so it can be scaled while a new one is rendered
+        private double imageMinReal;
+        private double imageMinImaginary;
+        private double imagePixelSize;
+
+        // Incremented for every render so that a background render which has been overtaken is thrown away
+        private int renderGeneration;
+        private Timer resizeTimer;
+
         /**
-         * Constructor to create the panel and add a mouse listener for the zoom and pan.
+         * Constructor to create the panel and add a mouse listener for the zoom and pan, and a component
+         * listener so the mandelbrot is re-rendered at the panel size whenever it is resized.
          */
         Panel() {
             MyMouseAdapter mouseAdapter = new MyMouseAdapter();
             addMouseListener(mouseAdapter);
             addMouseMotionListener(mouseAdapter);
-            createBufferedImage();
+            addMouseWheelListener(mouseAdapter);
+
+            resizeTimer = new Timer(RESIZE_DELAY, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    renderInBackground();
+                }
+            });
+            resizeTimer.setRepeats(false);
+            addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    // The first size the panel gets is rendered straight away, after that the old image is scaled by
+                    // paintComponent until the new one is ready
+                    if (mandelbrotImage == null) {
+                        renderInBackground();
+                        return;
+                    }
+                    resizeTimer.restart();
+                    repaint();
+                }
+            });
         }
 
         /**
@@ -390,8 +517,19 @@ public class Delegate implements PropertyChangeListener {
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
+            if (mandelbrotImage == null) {
+                return;
+            }
 
-            g.drawImage(mandelbrotImage, 0,0,this);
+            // Place the image where its part of the plane is in the view fitted to the panel's current size, scaling
+            // it if the panel has been resized and the image at the new size is still being rendered.
+            double pixelSize = model.getPixelSize(getWidth(), getHeight());
+            double scale = imagePixelSize / pixelSize;
+            int imageX = (int) Math.round((imageMinReal - model.getViewMinReal(getWidth(), getHeight())) / pixelSize);
+            int imageY = (int) Math.round((imageMinImaginary - model.getViewMinImaginary(getWidth(), getHeight())) / pixelSize);
+            int imageWidth = (int) Math.round(mandelbrotImage.getWidth() * scale);
+            int imageHeight = (int) Math.round(mandelbrotImage.getHeight() * scale);
+            g.drawImage(mandelbrotImage, imageX, imageY, imageWidth, imageHeight, this);
 
             // If the user is drawing and zoom is selected, display the box, otherwise draw the pan line
             if (drawing && zoom) {
@@ -402,12 +540,18 @@ public class Delegate implements PropertyChangeListener {
                 g.drawLine(clickX, clickY, xCurrent, yCurrent);
             }
 
+            // If the Julia preview is on, show it in the bottom right corner
+            if (juliaPreview != null) {
+                juliaPreview.draw(g, getWidth() - JuliaPreviewRenderer.DISPLAY_SIZE - 10,
+                        getHeight() - JuliaPreviewRenderer.DISPLAY_SIZE - 10);
+            }
+
             // If ratio is wanted then display the zoom ratio text.
             if (displayRatio) {
                 String ratio = "Zoom x" + model.getRatio();
                 g.setColor(Color.BLACK);
                 g.setFont(new Font("TimesRoman", Font.BOLD, 22));
-                g.drawString(ratio, model.resolution / 10, model.resolution / 10);
+                g.drawString(ratio, model.getWidth() / 10, model.getHeight() / 10);
             }
         }
 
@@ -417,43 +561,256 @@ public class Delegate implements PropertyChangeListener {
          * image rather than recalculate the whole image when drawing the zoom and pan lines.
          */
         public void createBufferedImage(){
-            Dimension imageDimension = new Dimension(model.resolution, model.resolution);
-            mandelbrotImage = new BufferedImage(imageDimension.width, imageDimension.height, BufferedImage.TYPE_INT_RGB);
-
-            Graphics2D g2d = mandelbrotImage.createGraphics();
-            g2d.setBackground(Color.black);
-            g2d.fillRect(0,0, imageDimension.width, imageDimension.height);
-
-            // Get the points of the Mandelbrot
-            int[][] points = model.getPoints();
-
-            // For all the points in the mandelbrot set, draw them as a zero length line or 1px
-            for (int y = 0; y < model.resolution; y++) {
-                for (int x = 0; x < model.resolution; x++) {
-                    //If color is wanted add color otherwise just use black and white
-                    if (color) {
-                        g2d.setColor(getColor(points[y][x]));
-                        g2d.drawLine(x, y, x, y);
-                    } else if (!color && points[y][x] >= model.getMax_iterations()) {
-                        g2d.setColor(Color.BLACK);
-                        g2d.drawLine(x, y, x, y);
+            // Until the panel has been laid out there is no size to render at, the first resize renders instead
+            if (getWidth() <= 0 || getHeight() <= 0) {
+                return;
+            }
+            renderGeneration++;
+            model.setResolution(getWidth(), getHeight());
+
+            Model.ViewSnapshot snapshot = model.getSnapshot();
+            imageMinReal = snapshot.getMinReal();
+            imageMinImaginary = snapshot.getMinImaginary();
+            imagePixelSize = snapshot.getPixelSize();
+            mandelbrotImage = renderModel(snapshot, antiAlias, useDistance());
+
+            // Use the idle time until the next input to render where the user is likely to go next
+            model.speculate(cursor);
+        }
+
+        /**
+         * Distance estimation only applies to the Mandelbrot formula, other kernels are colored by iterations.
+         *
+         * @return True if the current render should be shaded by distance.
+         */
+        private boolean useDistance() {
+            return distance && model.getKernel() instanceof MandelbrotKernel;
+        }
+
+        /**
+         * Calculates a view of the model and colors it. Only reads the snapshot, never the model itself, so it can
+         * run on a background thread.
+         *
+         * @param snapshot    View of the model to render.
+         * @param supersample True to anti-alias the edges.
+         * @param useDistance True to shade by distance to the set rather than by iterations.
+         * @return Image of the view.
+         */
+        private BufferedImage renderModel(Model.ViewSnapshot snapshot, boolean supersample, boolean useDistance) {
+            if (useDistance) {
+                return renderDistanceImage(snapshot.getDistances(), snapshot.getPixelSize() * Model.DISTANCE_SCALE_PIXELS);
+            }
+            int[][] points = snapshot.getPoints();
+            AdaptiveSupersampler.EdgeSamples edges = supersample ? snapshot.getEdgeSamples(points) : null;
+            return renderImage(points, edges, snapshot.getMaxIterations());
+        }
+
+        /**
+         * Turns the Julia preview on or off, starting or stopping its render thread.
+         *
+         * @param enabled True to show the Julia set for the point under the cursor.
+         */
+        private void setJuliaPreview(boolean enabled) {
+            if (enabled && juliaPreview == null) {
+                juliaPreview = new JuliaPreviewRenderer(model.getMax_iterations(), new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only the inset needs painting again
+                        repaint(getWidth() - JuliaPreviewRenderer.DISPLAY_SIZE - 10,
+                                getHeight() - JuliaPreviewRenderer.DISPLAY_SIZE - 10,
+                                JuliaPreviewRenderer.DISPLAY_SIZE + 1, JuliaPreviewRenderer.DISPLAY_SIZE + 1);
+                    }
+                });
+                juliaPreview.setColorHue(colorHue);
+            } else if (!enabled && juliaPreview != null) {
+                juliaPreview.stop();
+                juliaPreview = null;
+            }
+        }
+
+        /**
+         * Sets the model to the current panel size and renders the mandelbrot on a background thread, leaving the
+         * old image scaled in place until the new one is ready.
+         */
+        private void renderInBackground() {
+            if (getWidth() <= 0 || getHeight() <= 0) {
+                return;
+            }
+            model.setResolution(getWidth(), getHeight());
+
+            // Copy the view here on the event thread, the worker never touches the model
+            final int generation = ++renderGeneration;
+            final Model.ViewSnapshot snapshot = model.getSnapshot();
+            final boolean supersample = antiAlias;
+            final boolean shadeDistance = useDistance();
+
+            new SwingWorker<BufferedImage, Void>() {
+                @Override
+                protected BufferedImage doInBackground() {
+                    return renderModel(snapshot, supersample, shadeDistance);
+                }
+
+                @Override
+                protected void done() {
+                    // Only show the image if nothing else has been rendered since it was started
+                    if (generation != renderGeneration) {
+                        return;
+                    }
+                    try {
+                        mandelbrotImage = get();
+                        imageMinReal = snapshot.getMinReal();
+                        imageMinImaginary = snapshot.getMinImaginary();
+                        imagePixelSize = snapshot.getPixelSize();
+                        repaint();
+                        model.speculate(cursor);
+                    } catch (Exception e) {
+                        System.out.println("Delegate renderInBackground: " + e.getMessage());
+                    }
+                }
+            }.execute();
+        }
+
+        /**
+         * Colors the points into an image, writing the pixels straight into the image's int array with the rows
+         * spread across all cores. Colors come from a lookup table built once per render, and edge pixels which
+         * were supersampled get the average color of their samples.
+         *
+         * @param points        Array of int[y][x] point values.
+         * @param edges         Extra samples for the edge pixels, or null if not anti-aliasing.
+         * @param maxIterations Max iterations the points were calculated with.
+         * @return Image of the points.
+         */
+        private BufferedImage renderImage(int[][] points, AdaptiveSupersampler.EdgeSamples edges, int maxIterations) {
+            int height = points.length;
+            int width = height == 0 ? 0 : points[0].length;
+            BufferedImage image = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_INT_RGB);
+            int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            int[] lookup = buildLookup(points, maxIterations);
+
+            IntStream.range(0, height).parallel().forEach(new IntConsumer() {
+                @Override
+                public void accept(int y) {
+                    int[] row = points[y];
+                    int offset = y * width;
+                    for (int x = 0; x < width; x++) {
+                        rgb[offset + x] = lookup[row[x]];
+                    }
+                }
+            });
+
+            if (edges != null) {
+                IntStream.range(0, edges.pixels.length).parallel().forEach(new IntConsumer() {
+                    @Override
+                    public void accept(int edge) {
+                        blendSamples(rgb, edges, edge, lookup);
+                    }
+                });
+            }
+            return image;
+        }
+
+        /**
+         * Shades distances into an image. Points inside the set are black, and points outside get brighter the
+         * further they are from the set until scaleDistance, beyond which they are all the same.
+         *
+         * @param distances     Array of double[y][x] distances to the set, 0 inside the set.
+         * @param scaleDistance Distance at which the shading reaches full brightness.
+         * @return Image of the distances.
+         */
+        private BufferedImage renderDistanceImage(double[][] distances, double scaleDistance) {
+            int height = distances.length;
+            int width = height == 0 ? 0 : distances[0].length;
+            BufferedImage image = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_INT_RGB);
+            int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+            IntStream.range(0, height).parallel().forEach(new IntConsumer() {
+                @Override
+                public void accept(int y) {
+                    double[] row = distances[y];
+                    int offset = y * width;
+                    for (int x = 0; x < width; x++) {
+                        float shade = (float) Math.sqrt(Math.min(row[x] / scaleDistance, 1.0));
+                        //If color is wanted tint by distance otherwise just use grey
+                        if (color) {
+                            rgb[offset + x] = Color.HSBtoRGB(shade * colorHue / 10.0f, 1.0f - shade, shade);
+                        } else {
+                            rgb[offset + x] = Color.HSBtoRGB(0.0f, 0.0f, shade);
+                        }
                     }
                 }
+            });
+            return image;
+        }
+
+        /**
+         * Replaces the color of an edge pixel with the average of its own color and the colors of its samples.
+         *
+         * @param rgb           Pixels of the image, already colored.
+         * @param edges         Extra samples for the edge pixels.
+         * @param edge          Which edge pixel to blend.
+         * @param lookup        Colors indexed by iteration value.
+         */
+        private void blendSamples(int[] rgb, AdaptiveSupersampler.EdgeSamples edges, int edge, int[] lookup) {
+            int pixel = edges.pixels[edge];
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+
+            for (int sample = -1; sample < AdaptiveSupersampler.SAMPLES; sample++) {
+                int sampleColor;
+                if (sample < 0) {
+                    sampleColor = rgb[pixel];
+                } else {
+                    sampleColor = lookup[edges.samples[edge * AdaptiveSupersampler.SAMPLES + sample]];
+                }
+                red += (sampleColor >> 16) & 0xFF;
+                green += (sampleColor >> 8) & 0xFF;
+                blue += sampleColor & 0xFF;
             }
 
+            int count = AdaptiveSupersampler.SAMPLES + 1;
+            rgb[pixel] = ((red / count) << 16) | ((green / count) << 8) | (blue / count);
         }
 
 
+        /**
+         * Builds the table of colors for each iteration value. Uses histogram equalization if selected, the HSB hue
+         * mapping if color is wanted, and otherwise black and white.
+         *
+         * @param points        Array of int[y][x] point values, used for the histogram.
+         * @param maxIterations Max iterations the points were calculated with.
+         * @return Array of maxIterations + 1 RGB values indexed by iteration value.
+         */
+        private int[] buildLookup(int[][] points, int maxIterations) {
+            if (color && equalize) {
+                return HistogramColorizer.buildLookup(points, maxIterations, colorHue);
+            }
+
+            int[] lookup = new int[maxIterations + 1];
+            for (int value = 0; value <= maxIterations; value++) {
+                //If color is wanted add color otherwise just use black and white
+                if (color) {
+                    lookup[value] = getColor(value, maxIterations);
+                } else if (value >= maxIterations) {
+                    lookup[value] = Color.BLACK.getRGB();
+                } else {
+                    lookup[value] = Color.WHITE.getRGB();
+                }
+            }
+            return lookup;
+        }
+
         /**
          * Uses HSB color space model to map the mandelbrot value given to a hue color.
          * @param value Mandelbrot no of iterations reached value.
-         * @return HSB color object to use for the value given.
+         * @param maxIterations Max iterations the value was calculated with.
+         * @return RGB value of the HSB color to use for the value given.
          */
-        private Color getColor(int value) {
-            if (value == model.getMax_iterations()) {
-                return Color.BLACK;
+        private int getColor(int value, int maxIterations) {
+            if (value == maxIterations) {
+                return Color.BLACK.getRGB();
             } else {
-                return Color.getHSBColor((float) value * colorHue / (float) model.getMax_iterations(), 1.0f, 1.0f);
+                return Color.HSBtoRGB((float) value * colorHue / (float) maxIterations, 1.0f, 1.0f);
             }
         }
 
@@ -486,6 +843,29 @@ public class Delegate implements PropertyChangeListener {
                 repaint(); // Call repaint to make sure the box drawn updates in real time.
             }
 
+            // When the mouse moves, ask for a Julia preview of the point under the cursor and move the speculative
+            // zoom to the cursor.
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                cursor = e.getPoint();
+                model.speculate(cursor);
+                if (juliaPreview != null) {
+                    juliaPreview.request(model.convertReal(e.getX()), model.convertImaginary(e.getY()));
+                }
+            }
+
+            // When the user scrolls, zoom in or out by 2x around the point under the cursor.
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                cursor = e.getPoint();
+                // High resolution wheels and trackpads send fractions of a notch, and zero for the smallest moves
+                double rotation = e.getPreciseWheelRotation();
+                if (rotation == 0) {
+                    return;
+                }
+                model.zoomAt(cursor, rotation < 0 ? 2.0 : 0.5);
+            }
+
             // When the user releases, get the point of release and call the methods in the model.
             @Override
             public void mouseReleased(MouseEvent e) {
@@ -0,0 +1,34 @@
+import java.io.Serializable;
+
+/**
+ * FractalKernel is the formula iterated for each pixel of a fractal.
+ * Every kernel runs its whole escape loop inside iterate, so there is one call per pixel rather than one per
+ * iteration, and as each implementation is a final class the loop itself is simple enough for the JIT to keep tight.
+ */
+public interface FractalKernel extends Serializable {
+
+    /**
+     * Works out the number of iterations the formula can be applied at a point before Z escapes the radius.
+     *
+     * @param real          the real component of the point (akin to X component).
+     * @param imaginary     the imaginary component of the point (akin to Y component).
+     * @param maxIterations the maximum number of iterations over which to iterate until assuming Z will remain bounded.
+     * @param radiusSquared the square of the radius Z must leave to escape.
+     * @return the number iterations for Z to grow outside of the bounding radius, or maxIterations if it never escaped.
+     */
+    int iterate(double real, double imaginary, int maxIterations, double radiusSquared);
+
+    /**
+     * Gets an id which is unique to the formula and its parameters, used to tell cached renders apart.
+     *
+     * @return String id of the kernel.
+     */
+    String getId();
+
+    /**
+     * Gets the view to start in and reset to for this formula.
+     *
+     * @return Array of {min_real, max_real, min_imaginary, max_imaginary}.
+     */
+    double[] getInitialView();
+}
@@ -0,0 +1,90 @@
+import java.awt.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * HistogramColorizer works out colors for a render by histogram equalization, so that each color is used by roughly
+ * the same number of pixels however the iteration values are spread. Deep views with high max iterations otherwise
+ * have nearly every pixel within a small part of the range and come out almost one color.
+ * The histogram is built in parallel, each stripe of rows counting into its own histogram which are then summed,
+ * and is turned into a lookup table from iteration value to color. There is at most one stripe per core, and fewer
+ * when the max iterations are high, so the stripe histograms never add up to more values than there are pixels.
+ */
+public class HistogramColorizer {
+
+    /**
+     * Builds a lookup table from iteration value to RGB color, equalized over the given points.
+     * Points at maxIterations are black, the rest get a hue from their position in the cumulative histogram.
+     *
+     * @param points        Array of int[y][x] point values.
+     * @param maxIterations Max iterations the points were calculated with.
+     * @param colorHue      Hue multiplier, same meaning as in the Delegate panel.
+     * @return Array of maxIterations + 1 RGB values indexed by iteration value.
+     */
+    public static int[] buildLookup(int[][] points, int maxIterations, float colorHue) {
+        int[] histogram = buildHistogram(points, maxIterations);
+
+        // Count of escaped pixels, the points inside the set take no part in the equalization
+        long escaped = 0;
+        for (int value = 0; value < maxIterations; value++) {
+            escaped += histogram[value];
+        }
+
+        int[] lookup = new int[maxIterations + 1];
+        long cumulative = 0;
+        for (int value = 0; value < maxIterations; value++) {
+            cumulative += histogram[value];
+            float position = escaped == 0 ? 0.0f : (float) cumulative / (float) escaped;
+            lookup[value] = Color.HSBtoRGB(position * colorHue, 1.0f, 1.0f);
+        }
+        lookup[maxIterations] = Color.BLACK.getRGB();
+        return lookup;
+    }
+
+    /**
+     * Counts how many points have each iteration value, with each stripe of rows counted in parallel into its
+     * own histogram so no counter is shared between threads.
+     *
+     * @param points        Array of int[y][x] point values.
+     * @param maxIterations Max iterations the points were calculated with.
+     * @return Array of maxIterations + 1 counts indexed by iteration value.
+     */
+    static int[] buildHistogram(int[][] points, int maxIterations) {
+        int height = points.length;
+        long pixels = height == 0 ? 0 : (long) height * points[0].length;
+
+        // One stripe per core, but no more than fit in the pixel count so memory and the sum below stay O(pixels)
+        long stripesForPixels = pixels / (maxIterations + 1L);
+        int stripes = (int) Math.max(1, Math.min(Math.min(height, Runtime.getRuntime().availableProcessors()),
+                stripesForPixels));
+        int[][] stripeHistograms = new int[stripes][maxIterations + 1];
+
+        IntStream.range(0, stripes).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int stripe) {
+                int[] counts = stripeHistograms[stripe];
+                int startY = (int) ((long) height * stripe / stripes);
+                int endY = (int) ((long) height * (stripe + 1) / stripes);
+                for (int y = startY; y < endY; y++) {
+                    for (int value : points[y]) {
+                        counts[value]++;
+                    }
+                }
+            }
+        });
+
+        // Sum the stripes, each range of values summed in parallel
+        int[] histogram = new int[maxIterations + 1];
+        IntStream.range(0, histogram.length).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int value) {
+                int count = 0;
+                for (int[] counts : stripeHistograms) {
+                    count += counts[value];
+                }
+                histogram[value] = count;
+            }
+        });
+        return histogram;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Kernel for a Julia set, Z_n+1 = Z_n^2 + C with C fixed and Z starting at the point of the pixel.
+ */
+public final class JuliaKernel implements FractalKernel {
+
+    private double cReal;
+    private double cImaginary;
+
+    /**
+     * Constructor, saves the constant C the Julia set is drawn for.
+     *
+     * @param cReal      the real component of C.
+     * @param cImaginary the imaginary component of C.
+     */
+    public JuliaKernel(double cReal, double cImaginary) {
+        this.cReal = cReal;
+        this.cImaginary = cImaginary;
+    }
+
+    @Override
+    public int iterate(double real, double imaginary, int maxIterations, double radiusSquared) {
+        return escape(real, imaginary, cReal, cImaginary, maxIterations, radiusSquared);
+    }
+
+    /**
+     * Iterates Z_n+1 = Z_n^2 + C from a starting Z, without needing a kernel object for each C.
+     *
+     * @param zReal         the real component of the starting Z.
+     * @param zImaginary    the imaginary component of the starting Z.
+     * @param cReal         the real component of C.
+     * @param cImaginary    the imaginary component of C.
+     * @param maxIterations the maximum number of iterations over which to iterate.
+     * @param radiusSquared the square of the radius Z must leave to escape.
+     * @return the number iterations for Z to escape, or maxIterations if it never escaped.
+     */
+    static int escape(double zReal, double zImaginary, double cReal, double cImaginary, int maxIterations,
+                      double radiusSquared) {
+        int iterations = 0;
+        double zr = zReal;
+        double zi = zImaginary;
+        boolean outside = false;
+        while (iterations < maxIterations && !outside) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            double nzr = zr2 - zi2 + cReal;
+            double nzi = 2 * zr * zi + cImaginary;
+            zr = nzr;
+            zi = nzi;
+            if ((zr2 + zi2) > radiusSquared)
+                outside = true;
+            iterations++;
+        }
+        return iterations;
+    }
+
+    @Override
+    public String getId() {
+        return "julia(" + cReal + "," + cImaginary + ")";
+    }
+
+    @Override
+    public double[] getInitialView() {
+        return new double[]{-1.6, 1.6, -1.6, 1.6};
+    }
+
+    @Override
+    public String toString() {
+        return "Julia";
+    }
+}
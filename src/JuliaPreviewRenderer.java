@@ -0,0 +1,280 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * JuliaPreviewRenderer renders a small preview of the Julia set for the point under the cursor on its own thread.
+ * Only the latest requested point is kept, so hover positions which arrive while a preview is rendering are dropped.
+ * Each preview has a frame budget, if a render runs over it is abandoned and the resolution, then the iterations,
+ * are lowered until renders fit, and raised again once there is time to spare. The images and pixel buffers are
+ * allocated up front so rendering a preview allocates nothing.
+ */
+public class JuliaPreviewRenderer {
+
+    // Time allowed for each preview
+    static final long FRAME_BUDGET_NANOS = 8000000L;
+
+    // Range of sizes the preview is rendered at, it is scaled up to DISPLAY_SIZE when drawn
+    static final int MAX_SIZE = 200;
+    static final int MIN_SIZE = 40;
+    static final int DISPLAY_SIZE = 200;
+    private static final int SIZE_STEP = 20;
+    private static final int MIN_ITERATIONS = 32;
+
+    // Iterations calculated between checks of the deadline, a fraction of a millisecond of work
+    private static final int DEADLINE_CHECK_ITERATIONS = 65536;
+
+    // Area of the plane shown in the preview
+    private static final double VIEW_MIN = -1.6;
+    private static final double VIEW_SIZE = 3.2;
+
+    private volatile float colorHue = 3.0f;
+
+    // Two images so one can be drawn while the other is rendered
+    private BufferedImage frontImage;
+    private BufferedImage backImage;
+    private int[] frontPixels;
+    private int[] backPixels;
+    private int frontSize;
+
+    // Adaptive settings, only touched by the render thread
+    private int size = MAX_SIZE;
+    private int iterations;
+    private int max_iterations;
+
+    // Latest requested point, guarded by lock
+    private final Object lock = new Object();
+    private double requestReal;
+    private double requestImaginary;
+    private boolean requested;
+    private boolean running = true;
+
+    private Runnable onFrame;
+    private Thread renderThread;
+
+    /**
+     * Constructor, allocates the buffers and starts the render thread.
+     *
+     * @param maxIterations Max iterations to render previews with when there is time for them.
+     * @param onFrame       Called on the render thread each time a new preview is ready.
+     */
+    public JuliaPreviewRenderer(int maxIterations, Runnable onFrame) {
+        this.max_iterations = maxIterations;
+        this.iterations = maxIterations;
+        this.onFrame = onFrame;
+
+        frontImage = new BufferedImage(MAX_SIZE, MAX_SIZE, BufferedImage.TYPE_INT_RGB);
+        backImage = new BufferedImage(MAX_SIZE, MAX_SIZE, BufferedImage.TYPE_INT_RGB);
+        frontPixels = ((DataBufferInt) frontImage.getRaster().getDataBuffer()).getData();
+        backPixels = ((DataBufferInt) backImage.getRaster().getDataBuffer()).getData();
+
+        renderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                renderLoop();
+            }
+        }, "JuliaPreviewRenderer");
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    /**
+     * Asks for a preview of the Julia set for C, replacing any request that has not been started yet.
+     *
+     * @param cReal      Real component of C.
+     * @param cImaginary Imaginary component of C.
+     */
+    public void request(double cReal, double cImaginary) {
+        synchronized (lock) {
+            requestReal = cReal;
+            requestImaginary = cImaginary;
+            requested = true;
+            lock.notify();
+        }
+    }
+
+    /**
+     * Setter for the max iterations, used when the model's max iterations change.
+     *
+     * @param maxIterations New max iterations for the previews.
+     */
+    public void setMax_iterations(int maxIterations) {
+        synchronized (lock) {
+            this.max_iterations = maxIterations;
+        }
+    }
+
+    /**
+     * Setter for the hue used to color the previews.
+     *
+     * @param colorHue New hue value, same meaning as in the Delegate panel.
+     */
+    public void setColorHue(float colorHue) {
+        this.colorHue = colorHue;
+    }
+
+    /**
+     * Stops the render thread.
+     */
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            lock.notify();
+        }
+    }
+
+    /**
+     * Draws the latest preview scaled to DISPLAY_SIZE with its top left corner at x, y.
+     *
+     * @param g Graphics to draw with.
+     * @param x X position of the preview.
+     * @param y Y position of the preview.
+     */
+    public void draw(Graphics g, int x, int y) {
+        // Hold the lock so the render thread cannot swap and start overwriting this image while it is drawn
+        synchronized (lock) {
+            if (frontSize == 0) {
+                return;
+            }
+            g.drawImage(frontImage, x, y, x + DISPLAY_SIZE, y + DISPLAY_SIZE, 0, 0, frontSize, frontSize, null);
+        }
+        g.setColor(Color.WHITE);
+        g.drawRect(x, y, DISPLAY_SIZE, DISPLAY_SIZE);
+    }
+
+    /**
+     * Waits for requests and renders the latest one, adapting the size and iterations to the frame budget.
+     */
+    private void renderLoop() {
+        while (true) {
+            double cReal;
+            double cImaginary;
+            int maxIterations;
+            synchronized (lock) {
+                while (running && !requested) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                cReal = requestReal;
+                cImaginary = requestImaginary;
+                requested = false;
+                maxIterations = max_iterations;
+                if (iterations > maxIterations) {
+                    iterations = maxIterations;
+                }
+            }
+
+            int renderedSize = size;
+            long start = System.nanoTime();
+            int rendered = render(cReal, cImaginary, start + FRAME_BUDGET_NANOS);
+            long elapsed = System.nanoTime() - start;
+            boolean finished = rendered == renderedSize * renderedSize;
+
+            adapt(rendered, elapsed, maxIterations);
+
+            if (finished) {
+                swapImages(renderedSize);
+                onFrame.run();
+            } else {
+                // Try the point again at the lower settings unless the cursor has already moved on
+                synchronized (lock) {
+                    if (!requested) {
+                        requestReal = cReal;
+                        requestImaginary = cImaginary;
+                        requested = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the Julia set for C into the back image at the current size and iterations. The deadline is checked
+     * every DEADLINE_CHECK_ITERATIONS iterations, so a render runs over it by a fraction of a millisecond at most
+     * however high the iterations are.
+     *
+     * @param cReal      Real component of C.
+     * @param cImaginary Imaginary component of C.
+     * @param deadline   System.nanoTime at which to give up.
+     * @return Number of pixels rendered before the deadline, size * size if the render finished.
+     */
+    private int render(double cReal, double cImaginary, long deadline) {
+        double step = VIEW_SIZE / size;
+        int work = 0;
+        for (int y = 0; y < size; y++) {
+            double zImaginary = VIEW_MIN + y * step;
+            int offset = y * MAX_SIZE;
+            for (int x = 0; x < size; x++) {
+                // Give up on this preview rather than run over the budget
+                if (work >= DEADLINE_CHECK_ITERATIONS) {
+                    if (System.nanoTime() > deadline) {
+                        return y * size + x;
+                    }
+                    work = 0;
+                }
+                double zReal = VIEW_MIN + x * step;
+                int value = JuliaKernel.escape(zReal, zImaginary, cReal, cImaginary, iterations,
+                        MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+                work += value + 1;
+                backPixels[offset + x] = value == iterations ? 0
+                        : Color.HSBtoRGB((float) value * colorHue / (float) iterations, 1.0f, 1.0f);
+            }
+        }
+        return size * size;
+    }
+
+    /**
+     * Lowers the size, then the iterations, if the render ran over or close to the budget, and raises them
+     * again if it finished well within it. An abandoned render lowers the size in proportion to how much of it was
+     * left, and at the smallest size the iterations, so the next one should fit rather than taking one step down
+     * per frame.
+     *
+     * @param rendered      Number of pixels rendered.
+     * @param elapsed       Time the render took in nanoseconds.
+     * @param maxIterations Max iterations to raise the iterations up to.
+     */
+    private void adapt(int rendered, long elapsed, int maxIterations) {
+        boolean finished = rendered == size * size;
+        if (!finished || elapsed > FRAME_BUDGET_NANOS * 3 / 4) {
+            if (size > MIN_SIZE) {
+                int fitting = (int) (size * Math.sqrt((double) rendered / (size * size)));
+                // Round down to a whole step and always go down at least one
+                fitting = fitting / SIZE_STEP * SIZE_STEP;
+                size = Math.max(Math.min(fitting, size - SIZE_STEP), MIN_SIZE);
+            } else {
+                // Interior points cost the full iterations, so scale them by how much was rendered too
+                int fitting = (int) ((long) iterations * rendered / (size * size));
+                iterations = Math.max(Math.min(fitting, iterations / 2), MIN_ITERATIONS);
+            }
+        } else if (elapsed < FRAME_BUDGET_NANOS / 3) {
+            if (iterations < maxIterations) {
+                iterations = Math.min(iterations * 2, maxIterations);
+            } else if (size < MAX_SIZE) {
+                size = Math.min(size + SIZE_STEP, MAX_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Makes the image just rendered the one that is drawn.
+     *
+     * @param renderedSize Size the image was rendered at, only the top left renderedSize square is used.
+     */
+    private void swapImages(int renderedSize) {
+        synchronized (lock) {
+            BufferedImage image = frontImage;
+            int[] pixels = frontPixels;
+            frontImage = backImage;
+            frontPixels = backPixels;
+            backImage = image;
+            backPixels = pixels;
+            frontSize = renderedSize;
+        }
+    }
+}
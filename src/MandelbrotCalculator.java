@@ -28,6 +28,8 @@ either expressed or implied, of the FreeBSD Project.
 */
 
 import java.io.Serializable;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * The MandelbrotCalculator class contains methods which establish the Mandelbrot set.
@@ -55,6 +57,12 @@ public class MandelbrotCalculator implements Serializable {
     // Default parameter values
     protected static final double DEFAULT_RADIUS_SQUARED = 4.0;
 
+    // Distance estimation needs Z to be far outside the radius before the estimate is accurate
+    protected static final double DISTANCE_RADIUS_SQUARED = 1.0e10;
+
+    // Size in pixels of the square tiles distance estimation is split into across the cores
+    private static final int DISTANCE_TILE_SIZE = 64;
+
 
 
     /**
@@ -68,7 +76,7 @@ public class MandelbrotCalculator implements Serializable {
      * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded. The value used is commonly 4.0.
      * @return the number iterations for the value of Z to grow outside of the bounding radius, or maxIterations if it never escaped.
      */
-    private int calcMandel(double cReal, double cImaginary, int maxIterations, double radiusSquared){
+    int calcMandel(double cReal, double cImaginary, int maxIterations, double radiusSquared){
         // To work out Z_n+1 = Z_n^2 + C and establish whether C is in the Mandelbrot set or not
         // we need to
         //    square the current value of Z
@@ -96,7 +104,180 @@ public class MandelbrotCalculator implements Serializable {
         return iterations;
     }
 
+    /**
+     * Method which gives exactly the same result as calcMandel, but stops early for points whose orbit repeats.
+     * A copy of Z is saved at steps 1, 2, 4, 8, ... and if Z later comes back to exactly that value the orbit is a
+     * cycle which has already been checked against the radius, so it can never escape and maxIterations is returned.
+     * Only worth using for points expected to be inside the set, for escaping points it is a little slower.
+     *
+     * @param cReal the real component (akin to X component) of the constant C.
+     * @param cImaginary the imaginary component (akin to Y component) of the constant C.
+     * @param maxIterations the maximum number of iterations over which to iterate the equation until assuming Z will remain bounded.
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     * @return the number iterations for the value of Z to grow outside of the bounding radius, or maxIterations if it never escaped.
+     */
+    int calcMandelPeriodic(double cReal, double cImaginary, int maxIterations, double radiusSquared){
+        int iterations = 0;
+        double zr = 0;
+        double zi = 0;
+        // Saved value of Z and how many steps until the next one is saved
+        double savedR = 0;
+        double savedI = 0;
+        int period = 1;
+        int steps = 0;
+        while (iterations < maxIterations) {
+            // Same arithmetic as calcMandel so the escape iteration is identical
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            double nzr = zr2 - zi2 + cReal;
+            double nzi = 2 * zr * zi + cImaginary;
+            zr = nzr;
+            zi = nzi;
+            iterations++;
+            if ((zr2 + zi2) > radiusSquared)
+                return iterations;
+
+            // Every value from the saved one up to here passed the radius check, so a repeat never escapes
+            if (zr == savedR && zi == savedI)
+                return maxIterations;
+            if (++steps == period) {
+                savedR = zr;
+                savedI = zi;
+                period *= 2;
+                steps = 0;
+            }
+        }
+        return iterations;
+    }
+
+
+
+    /**
+     * Method which estimates the distance from the constant C to the boundary of the Mandelbrot set.
+     * Alongside Z_n+1 = Z_n^2 + C it tracks the derivative dZ_n+1/dC = 2 * Z_n * dZ_n/dC + 1, and once Z escapes
+     * the distance is estimated as 2 * |Z| * ln|Z| / |dZ/dC|. The true distance is at least a quarter of the estimate.
+     *
+     * @param cReal the real component (akin to X component) of the constant C.
+     * @param cImaginary the imaginary component (akin to Y component) of the constant C.
+     * @param maxIterations the maximum number of iterations over which to iterate the equation until assuming Z will remain bounded.
+     * @return the estimated distance to the boundary, or 0 if C did not escape and is treated as being part of the set.
+     */
+    double calcDistance(double cReal, double cImaginary, int maxIterations){
+        int iterations = 0;
+        double zr = 0;
+        double zi = 0;
+        double dzr = 0;
+        double dzi = 0;
+        double modulusSquared = 0;
+        while (iterations < maxIterations) {
+            // dZ = 2 * Z * dZ + 1, using Z before it is updated
+            double ndzr = 2 * (zr * dzr - zi * dzi) + 1;
+            double ndzi = 2 * (zr * dzi + zi * dzr);
+            dzr = ndzr;
+            dzi = ndzi;
+
+            double nzr = zr * zr - zi * zi + cReal;
+            double nzi = 2 * zr * zi + cImaginary;
+            zr = nzr;
+            zi = nzi;
+
+            modulusSquared = zr * zr + zi * zi;
+            if (modulusSquared > DISTANCE_RADIUS_SQUARED) {
+                double modulus = Math.sqrt(modulusSquared);
+                return 2 * modulus * Math.log(modulus) / Math.sqrt(dzr * dzr + dzi * dzi);
+            }
+            iterations++;
+        }
+        return 0;
+    }
+
+    /**
+     * Method to estimate the distance from each pixel to the boundary of the Mandelbrot set for the given parameter
+     * settings. When a pixel is far enough outside the set, the disc around it of pixels guaranteed to be at least
+     * skipDistance outside is filled with a lower bound of their distance instead of being iterated. Views which are
+     * mostly outside the set therefore only iterate the pixels near the boundary.
+     * The view is split into tiles which are calculated across all cores.
+     * @param xResolution the number of pixels on the x-axis in your Model display.
+     * @param yResolution the number of pixels on the y-axis in your Model display.
+     * @param minReal the lower real bound for the complex constant C (equivalent to lower bound X value in Mandelbrot set)
+     * @param maxReal the upper real bound for the complex constant C (equivalent to upper bound X value in Mandelbrot set)
+     * @param minImaginary the lower imaginary bound for the complex constant C (equivalent to lower bound Y value in Mandelbrot set)
+     * @param maxImaginary the upper imaginary bound for the complex constant C (equivalent to upper bound Y value in Mandelbrot set)
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param skipDistance distances above this are treated as all the same, so pixels known to be further away are skipped.
+     * @return the 2-D double array distanceData[yResolution][xResolution] containing for each [y][x] pixel the estimated distance to the set, 0 inside the set, and for skipped pixels a lower bound of at least skipDistance.
+     */
+    public double[][] calcDistanceEstimate(int xResolution, int yResolution, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double skipDistance){
+
+        double[][] distanceData = new double[yResolution][xResolution];
+
+        double realStep = (maxReal - minReal)/xResolution;
+        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+
+        int tilesX = (xResolution + DISTANCE_TILE_SIZE - 1) / DISTANCE_TILE_SIZE;
+        int tilesY = (yResolution + DISTANCE_TILE_SIZE - 1) / DISTANCE_TILE_SIZE;
+
+        // Each tile only fills discs inside itself, so tiles never write to the same pixels
+        IntStream.range(0, tilesX * tilesY).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int tile) {
+                int startX = (tile % tilesX) * DISTANCE_TILE_SIZE;
+                int startY = (tile / tilesX) * DISTANCE_TILE_SIZE;
+                int endX = Math.min(startX + DISTANCE_TILE_SIZE, xResolution);
+                int endY = Math.min(startY + DISTANCE_TILE_SIZE, yResolution);
+
+                boolean[] known = new boolean[(endX - startX) * (endY - startY)];
+                int tileWidth = endX - startX;
+
+                for (int y = startY; y < endY; y++) {
+                    double cImaginary = minImaginary + y * imaginaryStep;
+                    for (int x = startX; x < endX; x++) {
+                        if (known[(y - startY) * tileWidth + (x - startX)]) {
+                            continue;
+                        }
+                        double cReal = minReal + x * realStep;
+                        double distance = calcDistance(cReal, cImaginary, maxIterations);
+                        distanceData[y][x] = distance;
+                        known[(y - startY) * tileWidth + (x - startX)] = true;
+
+                        // Everything within a quarter of the estimate is outside the set
+                        double bound = distance / 4;
+                        if (bound > skipDistance) {
+                            fillDisc(distanceData, known, x, y, startX, startY, endX, endY, bound, skipDistance, realStep, imaginaryStep);
+                        }
+                    }
+                }
+            }
+        });
+        return distanceData;
+    }
+
+    /**
+     * Fills the pixels of a tile which are close enough to a pixel known to be outside the set that their distance
+     * is still above skipDistance. Each is given the lower bound of its distance, bound minus how far it is from the pixel.
+     */
+    private void fillDisc(double[][] distanceData, boolean[] known, int centreX, int centreY, int startX, int startY, int endX, int endY, double bound, double skipDistance, double realStep, double imaginaryStep){
+        double radius = bound - skipDistance;
+        int radiusX = (int) Math.min(radius / realStep, DISTANCE_TILE_SIZE);
+        int radiusY = (int) Math.min(radius / imaginaryStep, DISTANCE_TILE_SIZE);
+        int tileWidth = endX - startX;
 
+        for (int y = Math.max(centreY - radiusY, startY); y <= Math.min(centreY + radiusY, endY - 1); y++) {
+            double offsetImaginary = (y - centreY) * imaginaryStep;
+            for (int x = Math.max(centreX - radiusX, startX); x <= Math.min(centreX + radiusX, endX - 1); x++) {
+                int index = (y - startY) * tileWidth + (x - startX);
+                if (known[index]) {
+                    continue;
+                }
+                double offsetReal = (x - centreX) * realStep;
+                double lowerBound = bound - Math.sqrt(offsetReal * offsetReal + offsetImaginary * offsetImaginary);
+                if (lowerBound > skipDistance) {
+                    distanceData[y][x] = lowerBound;
+                    known[index] = true;
+                }
+            }
+        }
+    }
 
     /**
      * Method to calculate the Mandelbrot set for the given parameter settings.
@@ -128,4 +309,132 @@ public class MandelbrotCalculator implements Serializable {
         }
         return mandelbrotData;
     }
+
+    /**
+     * Method to calculate the Mandelbrot set for the given parameter settings, spreading the rows across all cores.
+     * Gives exactly the same result as calcMandelbrotSet.
+     * @param xResolution the number of pixels on the x-axis in your Model display.
+     * @param yResolution the number of pixels on the y-axis in your Model display.
+     * @param minReal the lower real bound for the complex constant C (equivalent to lower bound X value in Mandelbrot set)
+     * @param maxReal the upper real bound for the complex constant C (equivalent to upper bound X value in Mandelbrot set)
+     * @param minImaginary the lower imaginary bound for the complex constant C (equivalent to lower bound Y value in Mandelbrot set)
+     * @param maxImaginary the upper imaginary bound for the complex constant C (equivalent to upper bound Y value in Mandelbrot set)
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     * @return the 2-D integer array mandelbrotData[yResolution][xResolution] containing the for each [y][x] pixel the number of iterations needed until Z escaped the bounding radius, or maxIterations otherwise.
+     */
+    public int[][] calcMandelbrotSetParallel(int xResolution, int yResolution, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared){
+
+        int[][] mandelbrotData = new int[yResolution][xResolution];
+
+        double realStep = (maxReal - minReal)/xResolution;
+        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+
+        // Rows take very different times so let the common pool balance them
+        IntStream.range(0, yResolution).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int y) {
+                int[] row = mandelbrotData[y];
+                double cImaginary = minImaginary + y * imaginaryStep;
+                for (int x = 0; x < xResolution; x++) {
+                    double cReal = minReal + x * realStep;
+                    row[x] = calcMandel(cReal, cImaginary, maxIterations, radiusSquared);
+                }
+            }
+        });
+        return mandelbrotData;
+    }
+
+    /**
+     * Method to calculate any fractal for the given parameter settings, spreading the rows across all cores.
+     * The kernel runs the whole escape loop for each pixel, so the formula costs one call per pixel.
+     * @param kernel the formula to iterate for each pixel.
+     * @param xResolution the number of pixels on the x-axis in your Model display.
+     * @param yResolution the number of pixels on the y-axis in your Model display.
+     * @param minReal the lower real bound of the view.
+     * @param maxReal the upper real bound of the view.
+     * @param minImaginary the lower imaginary bound of the view.
+     * @param maxImaginary the upper imaginary bound of the view.
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     * @return the 2-D integer array fractalData[yResolution][xResolution] containing the for each [y][x] pixel the number of iterations needed until Z escaped the bounding radius, or maxIterations otherwise.
+     */
+    public int[][] calcMandelbrotSetParallel(FractalKernel kernel, int xResolution, int yResolution, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared){
+        return calcRegionParallel(kernel, xResolution, yResolution, 0, 0, xResolution, yResolution, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared);
+    }
+
+    /**
+     * Method to calculate a rectangular region of any fractal, spreading the rows across all cores. Pixels are mapped
+     * to the complex plane as calcMandelbrotRegion maps them, and the region may lie partly or wholly outside the view
+     * the bounds describe, so a view moved by whole pixels can be calculated on the same grid as the original.
+     * @param kernel the formula to iterate for each pixel.
+     * @param xResolution the number of pixels on the x-axis of the whole view.
+     * @param yResolution the number of pixels on the y-axis of the whole view.
+     * @param startX the x pixel of the top left corner of the region, may be negative.
+     * @param startY the y pixel of the top left corner of the region, may be negative.
+     * @param width the number of pixels on the x-axis of the region.
+     * @param height the number of pixels on the y-axis of the region.
+     * @param minReal the lower real bound of the whole view.
+     * @param maxReal the upper real bound of the whole view.
+     * @param minImaginary the lower imaginary bound of the whole view.
+     * @param maxImaginary the upper imaginary bound of the whole view.
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     * @return the 2-D integer array fractalData[height][width] where fractalData[y][x] holds the value of pixel [startY + y][startX + x] of the whole view.
+     */
+    public int[][] calcRegionParallel(FractalKernel kernel, int xResolution, int yResolution, int startX, int startY, int width, int height, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared){
+
+        int[][] fractalData = new int[height][width];
+
+        double realStep = (maxReal - minReal)/xResolution;
+        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+
+        IntStream.range(0, height).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int y) {
+                int[] row = fractalData[y];
+                double cImaginary = minImaginary + (startY + y) * imaginaryStep;
+                for (int x = 0; x < width; x++) {
+                    double cReal = minReal + (startX + x) * realStep;
+                    row[x] = kernel.iterate(cReal, cImaginary, maxIterations, radiusSquared);
+                }
+            }
+        });
+        return fractalData;
+    }
+
+    /**
+     * Method to calculate a rectangular region of the Mandelbrot set for the given parameter settings.
+     * Each pixel is mapped to the complex plane exactly as calcMandelbrotSet maps it, so regions of a view can be
+     * calculated separately and stitched together to give the same result as calculating the whole view.
+     * @param xResolution the number of pixels on the x-axis of the whole view.
+     * @param yResolution the number of pixels on the y-axis of the whole view.
+     * @param startX the x pixel of the top left corner of the region.
+     * @param startY the y pixel of the top left corner of the region.
+     * @param width the number of pixels on the x-axis of the region.
+     * @param height the number of pixels on the y-axis of the region.
+     * @param minReal the lower real bound of the whole view.
+     * @param maxReal the upper real bound of the whole view.
+     * @param minImaginary the lower imaginary bound of the whole view.
+     * @param maxImaginary the upper imaginary bound of the whole view.
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     * @return the 2-D integer array regionData[height][width] where regionData[y][x] holds the value of pixel [startY + y][startX + x] of the whole view.
+     */
+    public int[][] calcMandelbrotRegion(int xResolution, int yResolution, int startX, int startY, int width, int height, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared){
+
+        int[][] regionData = new int[height][width];
+
+        double realStep = (maxReal - minReal)/xResolution;
+        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+
+        for (int y = 0; y < height; y++) {
+            double cImaginary = minImaginary + (startY + y) * imaginaryStep;
+            for (int x = 0; x < width; x++) {
+                double cReal = minReal + (startX + x) * realStep;
+                regionData[y][x] = calcMandel(cReal, cImaginary, maxIterations, radiusSquared);
+            }
+        }
+        return regionData;
+    }
 }
@@ -0,0 +1,46 @@
+/**
+ * Kernel for the Mandelbrot set, Z_n+1 = Z_n^2 + C with Z starting at the origin and C the point of the pixel.
+ * Gives exactly the same values as MandelbrotCalculator.calcMandel.
+ */
+public final class MandelbrotKernel implements FractalKernel {
+
+    @Override
+    public int iterate(double real, double imaginary, int maxIterations, double radiusSquared) {
+        int iterations = 0;
+        double zr = 0;
+        double zi = 0;
+        boolean outside = false;
+        while (iterations < maxIterations && !outside) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            double nzr = zr2 - zi2 + real;
+            double nzi = 2 * zr * zi + imaginary;
+            zr = nzr;
+            zi = nzi;
+            if ((zr2 + zi2) > radiusSquared)
+                outside = true;
+            iterations++;
+        }
+        return iterations;
+    }
+
+    @Override
+    public String getId() {
+        return "mandelbrot";
+    }
+
+    @Override
+    public double[] getInitialView() {
+        return new double[]{
+                MandelbrotCalculator.INITIAL_MIN_REAL,
+                MandelbrotCalculator.INITIAL_MAX_REAL,
+                MandelbrotCalculator.INITIAL_MIN_IMAGINARY,
+                MandelbrotCalculator.INITIAL_MAX_IMAGINARY
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Mandelbrot";
+    }
+}
@@ -12,8 +12,21 @@ import java.util.ArrayList;
  */
 public class Model implements Serializable {
 
+    // Distance from the set in pixels beyond which distance estimation colors every point the same
+    static final double DISTANCE_SCALE_PIXELS = 8.0;
+
+    // Zoom centres are snapped to this many pixels so that a speculative zoom near the cursor is reused
+    private static final int ZOOM_SNAP_PIXELS = 8;
+
     private PropertyChangeSupport notifier;
     private MandelbrotCalculator mandelCalc;
+    private AdaptiveSupersampler supersampler;
+
+    // Formula iterated for each pixel
+    private FractalKernel kernel;
+
+    // Renders likely next views in idle time and remembers the last view calculated
+    private transient SpeculativeRenderer speculator;
 
     //Values for calculating mandelbrot
     private double min_real;
@@ -21,7 +34,22 @@ public class Model implements Serializable {
     private double min_imaginary;
     private double max_imaginary;
     private int max_iterations;
-    public int resolution = 800;
+
+    // Size in pixels of the area the mandelbrot is rendered to
+    private int width = 800;
+    private int height = 800;
+
+    // Pixel grid the view is calculated on, set whenever the view changes other than by a pan. Pans move the
+    // view a whole number of grid pixels, so panned views reuse exactly the pixels already calculated around them.
+    private double grid_min_real;
+    private double grid_min_imaginary;
+    private double grid_pixel_size;
+    private int grid_x;
+    private int grid_y;
+
+    // View and zoom key the current speculation was started for
+    private transient String speculatedKey;
+    private transient String speculatedZoomKey;
 
     // Arraylists used for logging the states
     private ArrayList<Double> log_min_real;
@@ -39,6 +67,8 @@ public class Model implements Serializable {
      */
     public Model() {
         mandelCalc = new MandelbrotCalculator();
+        supersampler = new AdaptiveSupersampler(AdaptiveSupersampler.DEFAULT_THRESHOLD);
+        kernel = new MandelbrotKernel();
         notifier = new PropertyChangeSupport(this);
         resetToDefault();
     }
@@ -48,6 +78,7 @@ public class Model implements Serializable {
      * Fires propertychange when complete
      */
     public void undo() {
+        cancelSpeculation();
         //Error check to make sure doesn't go negative, ie before the program started
         if (logCounter - 1 >= 0) {
             logCounter--;
@@ -62,6 +93,7 @@ public class Model implements Serializable {
      * Fires propertychange when complete
      */
     public void redo() {
+        cancelSpeculation();
         //Error check to make sure user cannot redo to an unknown point
         if (logCounter + 1 < log_min_real.size()) {
             logCounter++;
@@ -82,6 +114,18 @@ public class Model implements Serializable {
         min_imaginary = log_min_imaginary.get(logCounter);
         max_imaginary = log_max_imaginary.get(logCounter);
         max_iterations = log_max_iterations.get(logCounter);
+        resetGrid();
+    }
+
+    /**
+     * Puts the pixel grid back on the current bounds, called whenever the view changes other than by a pan.
+     */
+    private void resetGrid() {
+        grid_pixel_size = getPixelSize();
+        grid_min_real = getViewMinReal();
+        grid_min_imaginary = getViewMinImaginary();
+        grid_x = 0;
+        grid_y = 0;
     }
 
     /**
@@ -111,6 +155,7 @@ public class Model implements Serializable {
      * @param max_iterations New max iterations
      */
     public void setMax_iterations(int max_iterations) {
+        cancelSpeculation();
         this.max_iterations = max_iterations;
         updateLog();
         notifier.firePropertyChange("updateIterations", 0, max_iterations);
@@ -118,13 +163,129 @@ public class Model implements Serializable {
     }
 
     /**
-     * Getter for the zoom ratio. Calculates ratio of current real values compared to initial real values.
+     * Getter for the fractal kernel
+     *
+     * @return FractalKernel The formula currently being rendered.
+     */
+    public FractalKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Setter for the fractal kernel. Resets the view to the kernel's initial view, as the old view may not show
+     * anything of the new fractal, and then fires propertychangeevents.
+     *
+     * @param kernel New formula to render.
+     */
+    public void setKernel(FractalKernel kernel) {
+        this.kernel = kernel;
+        resetToDefault();
+    }
+
+    /**
+     * Getter for the zoom ratio. Calculates ratio of current real values compared to the kernel's initial real values.
      * Not perfect as only calculating based on the real values but close enough to give a reasonable representation.
      *
      * @return Double Estimated Zoom
      */
     public double getRatio() {
-        return (MandelbrotCalculator.INITIAL_MAX_REAL - MandelbrotCalculator.INITIAL_MIN_REAL) / (max_real - min_real);
+        double[] initialView = kernel.getInitialView();
+        return (initialView[1] - initialView[0]) / (max_real - min_real);
+    }
+
+    /**
+     * Getter for the width of the rendered area
+     *
+     * @return int Width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Getter for the height of the rendered area
+     *
+     * @return int Height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Setter for the size of the area to render to. Does not fire an event as the view itself has not moved,
+     * the caller decides when to re-render.
+     *
+     * @param width  New width in pixels, must be positive.
+     * @param height New height in pixels, must be positive.
+     */
+    public void setResolution(int width, int height) {
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            resetGrid();
+        }
+    }
+
+    /**
+     * Gets the size of one pixel in the complex plane. Pixels are kept square, so the current bounds are fitted
+     * inside the rendered area and the axis with spare room shows more of the plane.
+     *
+     * @return Double width and height of one pixel.
+     */
+    public double getPixelSize() {
+        return getPixelSize(width, height);
+    }
+
+    /**
+     * Gets the size of one pixel in the complex plane if the current bounds were fitted to another size, such as
+     * the size a panel has just been resized to.
+     *
+     * @param width  Width in pixels to fit the bounds to.
+     * @param height Height in pixels to fit the bounds to.
+     * @return Double width and height of one pixel.
+     */
+    public double getPixelSize(int width, int height) {
+        return Math.max((max_real - min_real) / width, (max_imaginary - min_imaginary) / height);
+    }
+
+    /**
+     * Gets the real value at the left edge of the rendered area, once the bounds are fitted to its aspect ratio.
+     *
+     * @return Double real value of pixel x = 0.
+     */
+    public double getViewMinReal() {
+        return getViewMinReal(width, height);
+    }
+
+    /**
+     * Gets the real value at the left edge if the current bounds were fitted to another size.
+     *
+     * @param width  Width in pixels to fit the bounds to.
+     * @param height Height in pixels to fit the bounds to.
+     * @return Double real value of pixel x = 0.
+     */
+    public double getViewMinReal(int width, int height) {
+        return (min_real + max_real) / 2 - getPixelSize(width, height) * width / 2;
+    }
+
+    /**
+     * Gets the imaginary value at the top edge of the rendered area, once the bounds are fitted to its aspect ratio.
+     *
+     * @return Double imaginary value of pixel y = 0.
+     */
+    public double getViewMinImaginary() {
+        return getViewMinImaginary(width, height);
+    }
+
+    /**
+     * Gets the imaginary value at the top edge if the current bounds were fitted to another size.
+     *
+     * @param width  Width in pixels to fit the bounds to.
+     * @param height Height in pixels to fit the bounds to.
+     * @return Double imaginary value of pixel y = 0.
+     */
+    public double getViewMinImaginary(int width, int height) {
+        return (min_imaginary + max_imaginary) / 2 - getPixelSize(width, height) * height / 2;
     }
 
     /**
@@ -143,6 +304,7 @@ public class Model implements Serializable {
      * @param endPoint   Point bottom right point of new mandelbrot set.
      */
     public void setZoom(Point startPoint, Point endPoint) {
+        cancelSpeculation();
 
         //Get the x and y values for the 2 points passed.
         int startX = startPoint.x;
@@ -175,6 +337,7 @@ public class Model implements Serializable {
             min_imaginary = newMinImaginary;
             max_imaginary = newMaxImaginary;
         }
+        resetGrid();
 
         // Update the log
         updateLog();
@@ -184,23 +347,70 @@ public class Model implements Serializable {
     }
 
     /**
-     * Maps an X value in range [0,resolution] to range [min_real, max_real]
+     * Zooms in or out by a factor, centring the new view on a point on the screen. The point is snapped to a
+     * small grid so that zooms near the cursor match the view speculatively rendered around it.
      *
-     * @param pointX value to map in range [0,resolution]
-     * @return New mapped value in range [min_real, max_real]
+     * @param centre Point on the screen to centre the new view on.
+     * @param factor How many times to magnify, below 1 to zoom out.
      */
-    private double convertReal(int pointX) {
-        return (pointX) * ((max_real - (min_real)) / resolution) + (min_real);
+    public void zoomAt(Point centre, double factor) {
+        cancelSpeculation();
+
+        double[] bounds = getZoomBounds(centre, factor);
+        min_real = bounds[0];
+        max_real = bounds[1];
+        min_imaginary = bounds[2];
+        max_imaginary = bounds[3];
+        resetGrid();
+
+        // Update the log
+        updateLog();
+
+        // Send of events so that the model can be re-rendered
+        notifier.firePropertyChange("updateIterations", 0, max_iterations);
+    }
+
+    /**
+     * Works out the bounds zoomAt would set, without changing the view.
+     *
+     * @param centre Point on the screen to centre the new view on.
+     * @param factor How many times to magnify.
+     * @return Array of {min_real, max_real, min_imaginary, max_imaginary}.
+     */
+    private double[] getZoomBounds(Point centre, double factor) {
+        int snappedX = Math.round((float) centre.x / ZOOM_SNAP_PIXELS) * ZOOM_SNAP_PIXELS;
+        int snappedY = Math.round((float) centre.y / ZOOM_SNAP_PIXELS) * ZOOM_SNAP_PIXELS;
+        double centreReal = convertReal(snappedX);
+        double centreImaginary = convertImaginary(snappedY);
+        double halfReal = (max_real - min_real) / factor / 2;
+        double halfImaginary = (max_imaginary - min_imaginary) / factor / 2;
+
+        return new double[]{
+                centreReal - halfReal,
+                centreReal + halfReal,
+                centreImaginary - halfImaginary,
+                centreImaginary + halfImaginary
+        };
+    }
+
+    /**
+     * Maps an X value in range [0,width] to the real value shown at that pixel
+     *
+     * @param pointX value to map in range [0,width]
+     * @return New mapped value, in range [min_real, max_real] when the bounds fill the width
+     */
+    public double convertReal(int pointX) {
+        return getViewMinReal() + pointX * getPixelSize();
     }
 
     /**
-     * Maps a Y value in range [0,resolution] to range [min_imaginary, max_imaginary]
+     * Maps a Y value in range [0,height] to the imaginary value shown at that pixel
      *
-     * @param pointY value to map in range [0,resolution]
-     * @return New mapped value in range [min_imaginary, max_imaginary]
+     * @param pointY value to map in range [0,height]
+     * @return New mapped value, in range [min_imaginary, max_imaginary] when the bounds fill the height
      */
-    private double convertImaginary(int pointY) {
-        return (((pointY) * (max_imaginary - (min_imaginary))) / (resolution)) + (min_imaginary);
+    public double convertImaginary(int pointY) {
+        return getViewMinImaginary() + pointY * getPixelSize();
     }
 
     /**
@@ -210,6 +420,7 @@ public class Model implements Serializable {
      * @param endPoint   Point to pan too
      */
     public void pan(Point startPoint, Point endPoint) {
+        cancelSpeculation();
 
         //Get the x and y values for the 2 points passed.
         int startX = startPoint.x;
@@ -222,14 +433,17 @@ public class Model implements Serializable {
         int lengthY = startY - finishY;
 
         // Convert the lengths to respective real and imaginary values
-        double lengthReal = min_real - convertReal(lengthX);
-        double lengthImaginary = min_imaginary - convertImaginary(lengthY);
-
-        // Set the new values for the mandelbrot
-        min_real -= lengthReal;
-        max_real -= lengthReal;
-        min_imaginary -= lengthImaginary;
-        max_imaginary -= lengthImaginary;
+        double pixelSize = getPixelSize();
+        double lengthReal = lengthX * pixelSize;
+        double lengthImaginary = lengthY * pixelSize;
+
+        // Set the new values for the mandelbrot, and move along the pixel grid by the same whole pixels
+        min_real += lengthReal;
+        max_real += lengthReal;
+        min_imaginary += lengthImaginary;
+        max_imaginary += lengthImaginary;
+        grid_x += lengthX;
+        grid_y += lengthY;
 
         // Update the log
         updateLog();
@@ -239,14 +453,17 @@ public class Model implements Serializable {
     }
 
     /**
-     * Resets all values back the original values and resets the logs.
+     * Resets all values back the kernel's initial values and resets the logs.
      */
     public void resetToDefault() {
-        min_real = MandelbrotCalculator.INITIAL_MIN_REAL;
-        max_real = MandelbrotCalculator.INITIAL_MAX_REAL;
-        min_imaginary = MandelbrotCalculator.INITIAL_MIN_IMAGINARY;
-        max_imaginary = MandelbrotCalculator.INITIAL_MAX_IMAGINARY;
+        cancelSpeculation();
+        double[] initialView = kernel.getInitialView();
+        min_real = initialView[0];
+        max_real = initialView[1];
+        min_imaginary = initialView[2];
+        max_imaginary = initialView[3];
         max_iterations = MandelbrotCalculator.INITIAL_MAX_ITERATIONS;
+        resetGrid();
 
         log_min_real = new ArrayList<>();
         log_max_real = new ArrayList<>();
@@ -265,21 +482,240 @@ public class Model implements Serializable {
     }
 
     /**
-     * Calculates the mandelbrot and returns an array of x, y values going up to the max_iterations
+     * Calculates the current fractal across all cores and returns an array of x, y values going up to the max_iterations.
+     * The bounds are fitted to the width and height so that the pixels stay square.
      *
-     * @return Array of int[y][x] point values.
+     * @return Array of int[height][width] point values.
      */
     public int[][] getPoints() {
+        return getSnapshot().getPoints();
+    }
 
-        int[][] madelbrotData = mandelCalc.calcMandelbrotSet(resolution, resolution,
-                min_real,
-                max_real,
-                min_imaginary,
-                max_imaginary,
-                max_iterations,
-                MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+    /**
+     * Takes a copy of everything needed to calculate the current view, so that it can be calculated on another
+     * thread while this model carries on changing.
+     *
+     * @return Snapshot of the current view.
+     */
+    public ViewSnapshot getSnapshot() {
+        return new ViewSnapshot(this);
+    }
 
-        return madelbrotData;
+    /**
+     * An unchanging copy of a view of the model, with the bounds already fitted to the size. Calculating a
+     * snapshot never reads the model, so it is safe to do on a background thread while the model changes.
+     */
+    public static class ViewSnapshot {
+        private final FractalKernel kernel;
+        private final int width;
+        private final int height;
+        private final double gridMinReal;
+        private final double gridMinImaginary;
+        private final double pixelSize;
+        private final int gridX;
+        private final int gridY;
+        private final double minReal;
+        private final double minImaginary;
+        private final int maxIterations;
+        private final String key;
+
+        private final MandelbrotCalculator mandelCalc;
+        private final AdaptiveSupersampler supersampler;
+        private final SpeculativeRenderer speculator;
+
+        /**
+         * Constructor, copies the view from the model. Must be called on the thread that changes the model.
+         *
+         * @param model Model to copy the view of.
+         */
+        private ViewSnapshot(Model model) {
+            this.kernel = model.kernel;
+            this.width = model.width;
+            this.height = model.height;
+            this.gridMinReal = model.grid_min_real;
+            this.gridMinImaginary = model.grid_min_imaginary;
+            this.pixelSize = model.grid_pixel_size;
+            this.gridX = model.grid_x;
+            this.gridY = model.grid_y;
+            this.minReal = gridMinReal + gridX * pixelSize;
+            this.minImaginary = gridMinImaginary + gridY * pixelSize;
+            this.maxIterations = model.max_iterations;
+            this.key = model.getViewKey(gridMinReal, gridMinImaginary, pixelSize, gridX, gridY);
+            this.mandelCalc = model.mandelCalc;
+            this.supersampler = model.supersampler;
+            this.speculator = model.getSpeculator();
+        }
+
+        /**
+         * Getter for the real value at the left edge of the snapshot.
+         *
+         * @return Double real value of pixel x = 0.
+         */
+        public double getMinReal() {
+            return minReal;
+        }
+
+        /**
+         * Getter for the imaginary value at the top edge of the snapshot.
+         *
+         * @return Double imaginary value of pixel y = 0.
+         */
+        public double getMinImaginary() {
+            return minImaginary;
+        }
+
+        /**
+         * Getter for the size of one pixel of the snapshot.
+         *
+         * @return Double width and height of one pixel.
+         */
+        public double getPixelSize() {
+            return pixelSize;
+        }
+
+        /**
+         * Getter for the max iterations of the snapshot.
+         *
+         * @return int Max iterations the view is calculated to.
+         */
+        public int getMaxIterations() {
+            return maxIterations;
+        }
+
+        /**
+         * Calculates the view across all cores on its pixel grid, first checking the last view calculated, the
+         * views rendered speculatively and the views stored on disk. All of these give exactly the same points.
+         *
+         * @return Array of int[height][width] point values.
+         */
+        public int[][] getPoints() {
+            int[][] points = speculator.getCached(key);
+            if (points == null) {
+                points = speculator.getPanned(kernel, width, height, getGrid(), gridX, gridY, maxIterations);
+            }
+            if (points == null) {
+                points = TileStore.getDefault().get(key);
+            }
+            if (points != null) {
+                speculator.remember(key, points);
+                return points;
+            }
+
+            double[] grid = getGrid();
+            points = mandelCalc.calcRegionParallel(kernel, width, height, gridX, gridY, width, height,
+                    grid[0], grid[1], grid[2], grid[3], maxIterations, MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+
+            speculator.remember(key, points);
+            TileStore.getDefault().put(key, points);
+            return points;
+        }
+
+        /**
+         * Gets the bounds of the grid at offset 0, as passed to calcRegionParallel.
+         *
+         * @return Array of {minReal, maxReal, minImaginary, maxImaginary}.
+         */
+        private double[] getGrid() {
+            return new double[]{gridMinReal, gridMinReal + pixelSize * width,
+                    gridMinImaginary, gridMinImaginary + pixelSize * height};
+        }
+
+        /**
+         * Estimates the distance from each pixel to the boundary of the Mandelbrot set, for rendering thin filaments.
+         * Pixels further than DISTANCE_SCALE_PIXELS from the set may be skipped and given a lower bound instead.
+         * Distance estimation is only defined for the Mandelbrot formula, so this ignores the kernel.
+         *
+         * @return Array of double[height][width] distances, 0 for points inside the set.
+         */
+        public double[][] getDistances() {
+            return mandelCalc.calcDistanceEstimate(width, height,
+                    minReal,
+                    minReal + pixelSize * width,
+                    minImaginary,
+                    minImaginary + pixelSize * height,
+                    maxIterations,
+                    pixelSize * DISTANCE_SCALE_PIXELS);
+        }
+
+        /**
+         * Supersamples the edge pixels of points returned by getPoints, for anti-aliasing the render.
+         *
+         * @param points Array of int[y][x] point values from getPoints of this snapshot.
+         * @return The edge pixels and their extra samples.
+         */
+        public AdaptiveSupersampler.EdgeSamples getEdgeSamples(int[][] points) {
+            return supersampler.sample(kernel, points, minReal, minImaginary, pixelSize, maxIterations);
+        }
+    }
+
+    /**
+     * Starts rendering the views the user is likely to go to next, a margin around the current view for panning
+     * and the view zoomed in around the cursor. Should be called once the current view has been shown, any
+     * change to the view cancels it. Calling it again for the same view as the cursor moves only retargets the zoom.
+     *
+     * @param cursor Point on the screen the mouse is over, or null to use the centre.
+     */
+    public void speculate(Point cursor) {
+        String key = getViewKey(grid_min_real, grid_min_imaginary, grid_pixel_size, grid_x, grid_y);
+        int[][] points = getSpeculator().getCached(key);
+        if (points == null) {
+            return;
+        }
+        if (cursor == null) {
+            cursor = new Point(width / 2, height / 2);
+        }
+
+        // Work out the zoomed view as the model would on a wheel zoom at the cursor, it starts a new grid
+        double[] zoomBounds = getZoomBounds(cursor, 2.0);
+        double zoomPixelSize = Math.max((zoomBounds[1] - zoomBounds[0]) / width, (zoomBounds[3] - zoomBounds[2]) / height);
+        double zoomMinReal = (zoomBounds[0] + zoomBounds[1]) / 2 - zoomPixelSize * width / 2;
+        double zoomMinImaginary = (zoomBounds[2] + zoomBounds[3]) / 2 - zoomPixelSize * height / 2;
+        double[] zoomView = {zoomMinReal, zoomMinReal + zoomPixelSize * width,
+                zoomMinImaginary, zoomMinImaginary + zoomPixelSize * height};
+        String zoomKey = getViewKey(zoomMinReal, zoomMinImaginary, zoomPixelSize, 0, 0);
+
+        if (!key.equals(speculatedKey)) {
+            double[] grid = {grid_min_real, grid_min_real + grid_pixel_size * width,
+                    grid_min_imaginary, grid_min_imaginary + grid_pixel_size * height};
+            getSpeculator().speculate(kernel, points, grid, grid_x, grid_y, max_iterations, zoomKey, zoomView);
+        } else if (!zoomKey.equals(speculatedZoomKey)) {
+            getSpeculator().retargetZoom(kernel, width, height, max_iterations, zoomKey, zoomView);
+        }
+        speculatedKey = key;
+        speculatedZoomKey = zoomKey;
+    }
+
+    /**
+     * Makes a key which is unique to everything that affects the points of a view.
+     *
+     * @return String key of the view.
+     */
+    private String getViewKey(double gridMinReal, double gridMinImaginary, double pixelSize, int gridX, int gridY) {
+        return kernel.getId() + ":" + gridMinReal + ":" + gridMinImaginary + ":" + pixelSize + ":" + gridX + ":" + gridY
+                + ":" + width + "x" + height + ":" + max_iterations;
+    }
+
+    /**
+     * Gets the speculative renderer, creating it if this model was just loaded from a file.
+     *
+     * @return The speculative renderer.
+     */
+    private SpeculativeRenderer getSpeculator() {
+        if (speculator == null) {
+            speculator = new SpeculativeRenderer();
+        }
+        return speculator;
+    }
+
+    /**
+     * Stops any speculative rendering, called whenever the view is about to change.
+     */
+    private void cancelSpeculation() {
+        if (speculator != null) {
+            speculator.cancel();
+        }
+        speculatedKey = null;
+        speculatedZoomKey = null;
     }
 
 
@@ -0,0 +1,62 @@
+/**
+ * Kernel for a multibrot set, Z_n+1 = Z_n^power + C with Z starting at the origin and C the point of the pixel.
+ */
+public final class MultibrotKernel implements FractalKernel {
+
+    private int power;
+
+    /**
+     * Constructor, saves the power Z is raised to.
+     *
+     * @param power Power of Z, at least 2.
+     */
+    public MultibrotKernel(int power) {
+        if (power < 2) {
+            throw new IllegalArgumentException("MultibrotKernel: power must be at least 2");
+        }
+        this.power = power;
+    }
+
+    @Override
+    public int iterate(double real, double imaginary, int maxIterations, double radiusSquared) {
+        int iterations = 0;
+        double zr = 0;
+        double zi = 0;
+        boolean outside = false;
+        while (iterations < maxIterations && !outside) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+
+            // Raise Z to the power by repeated multiplication
+            double pr = zr;
+            double pi = zi;
+            for (int i = 1; i < power; i++) {
+                double npr = pr * zr - pi * zi;
+                pi = pr * zi + pi * zr;
+                pr = npr;
+            }
+
+            zr = pr + real;
+            zi = pi + imaginary;
+            if ((zr2 + zi2) > radiusSquared)
+                outside = true;
+            iterations++;
+        }
+        return iterations;
+    }
+
+    @Override
+    public String getId() {
+        return "multibrot(" + power + ")";
+    }
+
+    @Override
+    public double[] getInitialView() {
+        return new double[]{-1.5, 1.5, -1.5, 1.5};
+    }
+
+    @Override
+    public String toString() {
+        return "Multibrot " + power;
+    }
+}
@@ -0,0 +1,494 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * RenderRegression checks that every way of calculating the Mandelbrot set still gives the output of the original
+ * scalar calcMandelbrotSet. It renders a set of reference views through each engine, compares the iteration values
+ * with golden outputs stored on disk and reports how much faster each engine is than the scalar one. The caches
+ * which hand back views calculated earlier are checked the same way but reported apart, without a speedup.
+ * It needs no display, so it runs headless on a plain Linux box.
+ *
+ * Golden files have their own format so that they stay valid whatever happens to the caches: the magic "MGLD",
+ * the format version, the height and the width, followed by every value row by row, all as big endian ints and
+ * gzipped.
+ *
+ * Usage: RenderRegression goldenDirectory [--record]
+ * With --record the golden outputs are written from the scalar engine instead of being compared.
+ */
+public class RenderRegression {
+
+    // Runs of each engine, the fastest is reported after a warm up run
+    private static final int TIMED_RUNS = 3;
+
+    // Header of the golden files
+    private static final int GOLDEN_MAGIC = 0x4D474C44;
+    private static final int GOLDEN_VERSION = 1;
+
+    // Pan used by the speculative engine, in pixels from the view the margin is rendered around
+    private static final int PAN_PIXELS = 24;
+
+    // Tile size and number of the in process workers used by the coordinator engine
+    private static final int COORDINATOR_TILE_SIZE = 64;
+    private static final int COORDINATOR_WORKERS = 2;
+
+    private MandelbrotCalculator mandelCalc = new MandelbrotCalculator();
+
+    /**
+     * A reference view to render.
+     */
+    private static class View {
+        private String name;
+        private int width;
+        private int height;
+        private double minReal;
+        private double maxReal;
+        private double minImaginary;
+        private double maxImaginary;
+        private int maxIterations;
+
+        View(String name, int width, int height, double minReal, double maxReal, double minImaginary,
+             double maxImaginary, int maxIterations) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.minReal = minReal;
+            this.maxReal = maxReal;
+            this.minImaginary = minImaginary;
+            this.maxImaginary = maxImaginary;
+            this.maxIterations = maxIterations;
+        }
+    }
+
+    /**
+     * One way of calculating a view, with how close its output must be to the golden output.
+     */
+    private abstract static class Engine {
+        private String name;
+        // Largest difference in iterations a pixel may have, and the fraction of pixels which may have it
+        private int tolerance;
+        private double maxMismatch;
+        // True if the engine hands back a view calculated earlier rather than calculating it, so it is only
+        // checked for correctness and not compared for speed with the engines that calculate
+        private boolean cache;
+
+        Engine(String name, int tolerance, double maxMismatch) {
+            this(name, tolerance, maxMismatch, false);
+        }
+
+        Engine(String name, int tolerance, double maxMismatch, boolean cache) {
+            this.name = name;
+            this.tolerance = tolerance;
+            this.maxMismatch = maxMismatch;
+            this.cache = cache;
+        }
+
+        abstract int[][] render(View view) throws Exception;
+
+        /**
+         * Frees anything the engine holds once every view has been checked.
+         *
+         * @throws IOException If a file could not be removed.
+         */
+        void close() throws IOException {
+        }
+    }
+
+    /**
+     * Gets the reference views, chosen to cover the whole set, boundary detail, deep interior and a deep zoom.
+     *
+     * @return The reference views.
+     */
+    private static List<View> getViews() {
+        List<View> views = new ArrayList<>();
+        views.add(new View("initial", 320, 240,
+                MandelbrotCalculator.INITIAL_MIN_REAL, MandelbrotCalculator.INITIAL_MAX_REAL,
+                MandelbrotCalculator.INITIAL_MIN_IMAGINARY, MandelbrotCalculator.INITIAL_MAX_IMAGINARY,
+                MandelbrotCalculator.INITIAL_MAX_ITERATIONS));
+        views.add(new View("seahorse-valley", 320, 240, -0.7800, -0.7200, 0.0900, 0.1350, 1000));
+        views.add(new View("elephant-valley", 320, 240, 0.2500, 0.3100, -0.0225, 0.0225, 1000));
+        views.add(new View("main-cardioid", 256, 256, -0.5000, 0.1000, -0.3000, 0.3000, 2000));
+        views.add(new View("deep-spiral", 320, 240, -0.7436449, -0.7436419, 0.1318247, 0.1318269, 5000));
+        return views;
+    }
+
+    /**
+     * Gets every engine to check. The scalar engine is first and is the baseline for the speedups. Every engine
+     * must currently be bit exact, an approximate engine would be given a tolerance here. The cache engines render
+     * the view into their cache on the first run and return it from the cache on the next.
+     *
+     * @return The engines.
+     * @throws IOException If the workers for the coordinator engine could not be started.
+     */
+    private List<Engine> getEngines() throws IOException {
+        List<Engine> engines = new ArrayList<>();
+
+        engines.add(new Engine("scalar", 0, 0) {
+            @Override
+            int[][] render(View view) {
+                return mandelCalc.calcMandelbrotSet(view.width, view.height, view.minReal, view.maxReal,
+                        view.minImaginary, view.maxImaginary, view.maxIterations,
+                        MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+            }
+        });
+
+        engines.add(new Engine("parallel", 0, 0) {
+            @Override
+            int[][] render(View view) {
+                return mandelCalc.calcMandelbrotSetParallel(view.width, view.height, view.minReal, view.maxReal,
+                        view.minImaginary, view.maxImaginary, view.maxIterations,
+                        MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+            }
+        });
+
+        engines.add(new Engine("kernel", 0, 0) {
+            private FractalKernel kernel = new MandelbrotKernel();
+
+            @Override
+            int[][] render(View view) {
+                return mandelCalc.calcMandelbrotSetParallel(kernel, view.width, view.height, view.minReal,
+                        view.maxReal, view.minImaginary, view.maxImaginary, view.maxIterations,
+                        MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+            }
+        });
+
+        engines.add(new Engine("region-tiles", 0, 0) {
+            private static final int TILE_SIZE = 64;
+
+            @Override
+            int[][] render(View view) {
+                int[][] points = new int[view.height][view.width];
+                for (int startY = 0; startY < view.height; startY += TILE_SIZE) {
+                    for (int startX = 0; startX < view.width; startX += TILE_SIZE) {
+                        int width = Math.min(TILE_SIZE, view.width - startX);
+                        int height = Math.min(TILE_SIZE, view.height - startY);
+                        int[][] tile = mandelCalc.calcMandelbrotRegion(view.width, view.height, startX, startY,
+                                width, height, view.minReal, view.maxReal, view.minImaginary, view.maxImaginary,
+                                view.maxIterations, MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+                        for (int y = 0; y < height; y++) {
+                            System.arraycopy(tile[y], 0, points[startY + y], startX, width);
+                        }
+                    }
+                }
+                return points;
+            }
+        });
+
+        engines.add(new Engine("zoom-guess", 0, 0) {
+            // Previous frame for each view, rendered on the warm up run so only the guessed frame is timed
+            private HashMap<String, int[][]> previousFrames = new HashMap<>();
+
+            @Override
+            int[][] render(View view) {
+                // Guess from the view zoomed out by 10%, the way an animation would
+                double centreReal = (view.minReal + view.maxReal) / 2;
+                double centreImaginary = (view.minImaginary + view.maxImaginary) / 2;
+                ZoomAnimator animator = new ZoomAnimator(view.width, view.height, view.minReal, view.maxReal,
+                        view.minImaginary, view.maxImaginary, centreReal, centreImaginary, 2, 1.1,
+                        view.maxIterations);
+                double[] wider = animator.getView(-1);
+                int[][] previous = previousFrames.get(view.name);
+                if (previous == null) {
+                    previous = animator.renderFrame(wider, null, null);
+                    previousFrames.put(view.name, previous);
+                }
+
+                return animator.renderFrame(new double[]{view.minReal, view.maxReal, view.minImaginary,
+                        view.maxImaginary}, previous, wider);
+            }
+        });
+
+        engines.add(new Engine("speculative-pan", 0, 0, true) {
+            private FractalKernel kernel = new MandelbrotKernel();
+            // One renderer per view, its margin rendered on the warm up run so only putting the pan together is timed
+            private HashMap<String, SpeculativeRenderer> speculators = new HashMap<>();
+
+            @Override
+            int[][] render(View view) throws InterruptedException {
+                double[] grid = {view.minReal, view.maxReal, view.minImaginary, view.maxImaginary};
+                SpeculativeRenderer speculator = speculators.get(view.name);
+                if (speculator == null) {
+                    // Render the margin around the view PAN_PIXELS down and to the right, then pan back to the view
+                    speculator = new SpeculativeRenderer();
+                    int[][] shifted = mandelCalc.calcRegionParallel(kernel, view.width, view.height, PAN_PIXELS,
+                            PAN_PIXELS, view.width, view.height, grid[0], grid[1], grid[2], grid[3],
+                            view.maxIterations, MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+                    // The zoom is of no interest here, so mark it as done already
+                    speculator.remember(view.name + ":zoom", shifted);
+                    speculator.speculate(kernel, shifted, grid, PAN_PIXELS, PAN_PIXELS, view.maxIterations,
+                            view.name + ":zoom", grid);
+                    while (speculator.getPanned(kernel, view.width, view.height, grid, 0, 0,
+                            view.maxIterations) == null) {
+                        Thread.sleep(5);
+                    }
+                    speculators.put(view.name, speculator);
+                }
+                return speculator.getPanned(kernel, view.width, view.height, grid, 0, 0, view.maxIterations);
+            }
+        });
+
+        File storeDirectory = Files.createTempDirectory("regression-tiles").toFile();
+        engines.add(new Engine("tile-store", 0, 0, true) {
+            private TileStore store = new TileStore(storeDirectory, 64L * 1024 * 1024);
+
+            @Override
+            void close() throws IOException {
+                store.close();
+                File[] files = storeDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        Files.delete(file.toPath());
+                    }
+                }
+                Files.delete(storeDirectory.toPath());
+            }
+
+            @Override
+            int[][] render(View view) throws InterruptedException {
+                // Store the view on the warm up run, then time reading it back
+                int[][] points = store.get(view.name);
+                if (points == null) {
+                    store.put(view.name, mandelCalc.calcMandelbrotSetParallel(view.width, view.height,
+                            view.minReal, view.maxReal, view.minImaginary, view.maxImaginary, view.maxIterations,
+                            MandelbrotCalculator.DEFAULT_RADIUS_SQUARED));
+                    while ((points = store.get(view.name)) == null) {
+                        Thread.sleep(5);
+                    }
+                }
+                return points;
+            }
+        });
+
+        // Workers run inside this program on any free ports
+        ArrayList<InetSocketAddress> workers = new ArrayList<>();
+        for (int i = 0; i < COORDINATOR_WORKERS; i++) {
+            workers.add(new InetSocketAddress("localhost", new TileWorker(0).start()));
+        }
+        TileCoordinator coordinator = new TileCoordinator(workers, COORDINATOR_TILE_SIZE);
+        engines.add(new Engine("coordinator", 0, 0) {
+            @Override
+            int[][] render(View view) throws IOException {
+                return coordinator.render(view.width, view.height, view.minReal, view.maxReal, view.minImaginary,
+                        view.maxImaginary, view.maxIterations, MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+            }
+        });
+
+        return engines;
+    }
+
+    /**
+     * Writes the golden output of every view from the scalar engine.
+     *
+     * @param goldenDirectory Directory to write the golden outputs to.
+     * @throws Exception If a golden output could not be written.
+     */
+    public void record(File goldenDirectory) throws Exception {
+        goldenDirectory.mkdirs();
+        List<Engine> engines = getEngines();
+        try {
+            Engine scalar = engines.get(0);
+            for (View view : getViews()) {
+                File file = new File(goldenDirectory, view.name + ".golden");
+                writeGolden(file, scalar.render(view));
+                System.out.println("Recorded " + file.getPath());
+            }
+        } finally {
+            for (Engine engine : engines) {
+                engine.close();
+            }
+        }
+    }
+
+    /**
+     * Renders every view through every engine, compares the output with the golden output and prints a report.
+     * The engines which calculate are reported with their speedup over the scalar engine, the cache engines
+     * separately with the time to fetch the view, as their speed says nothing about calculating.
+     *
+     * @param goldenDirectory Directory the golden outputs are in.
+     * @return True if every engine matched on every view.
+     * @throws Exception If a golden output could not be read.
+     */
+    public boolean check(File goldenDirectory) throws Exception {
+        List<Engine> engines = getEngines();
+        boolean passed = true;
+
+        try {
+            System.out.println(String.format("%-16s %-16s %-6s %10s %8s %10s %8s",
+                    "view", "engine", "result", "mismatched", "maxdiff", "time(ms)", "speedup"));
+            for (View view : getViews()) {
+                int[][] golden = readGolden(new File(goldenDirectory, view.name + ".golden"));
+                double scalarTime = 0;
+
+                for (Engine engine : engines) {
+                    if (engine.cache) {
+                        continue;
+                    }
+                    // Warm up, then keep the fastest run
+                    int[][] points = engine.render(view);
+                    long best = Long.MAX_VALUE;
+                    for (int run = 0; run < TIMED_RUNS; run++) {
+                        long start = System.nanoTime();
+                        points = engine.render(view);
+                        best = Math.min(best, System.nanoTime() - start);
+                    }
+                    double time = best / 1e6;
+                    if (scalarTime == 0) {
+                        scalarTime = time;
+                    }
+
+                    int[] comparison = compare(golden, points);
+                    boolean matches = matches(engine, view, comparison);
+                    passed &= matches;
+                    System.out.println(String.format("%-16s %-16s %-6s %10s %8d %10.2f %7.2fx",
+                            view.name, engine.name, matches ? "PASS" : "FAIL", mismatched(comparison),
+                            comparison[1], time, scalarTime / time));
+                }
+            }
+
+            System.out.println();
+            System.out.println(String.format("%-16s %-16s %-6s %10s %8s %10s",
+                    "view", "cache", "result", "mismatched", "maxdiff", "fetch(ms)"));
+            for (View view : getViews()) {
+                int[][] golden = readGolden(new File(goldenDirectory, view.name + ".golden"));
+
+                for (Engine engine : engines) {
+                    if (!engine.cache) {
+                        continue;
+                    }
+                    // The first run fills the cache, the second fetches from it
+                    engine.render(view);
+                    long start = System.nanoTime();
+                    int[][] points = engine.render(view);
+                    double time = (System.nanoTime() - start) / 1e6;
+
+                    int[] comparison = compare(golden, points);
+                    boolean matches = matches(engine, view, comparison);
+                    passed &= matches;
+                    System.out.println(String.format("%-16s %-16s %-6s %10s %8d %10.2f",
+                            view.name, engine.name, matches ? "PASS" : "FAIL", mismatched(comparison),
+                            comparison[1], time));
+                }
+            }
+        } finally {
+            for (Engine engine : engines) {
+                engine.close();
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * @return True if a comparison is within the engine's tolerance.
+     */
+    private static boolean matches(Engine engine, View view, int[] comparison) {
+        long pixels = (long) view.width * view.height;
+        return comparison[0] >= 0 && comparison[1] <= engine.tolerance
+                && comparison[0] <= engine.maxMismatch * pixels;
+    }
+
+    /**
+     * @return The number of mismatched pixels of a comparison for the report, or "size" if the sizes differed.
+     */
+    private static String mismatched(int[] comparison) {
+        return comparison[0] < 0 ? "size" : String.valueOf(comparison[0]);
+    }
+
+    /**
+     * Writes a golden output in the golden file format.
+     *
+     * @param file   File to write.
+     * @param points Array of int[y][x] point values.
+     * @throws IOException If the file could not be written.
+     */
+    static void writeGolden(File file, int[][] points) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(GOLDEN_MAGIC);
+            out.writeInt(GOLDEN_VERSION);
+            out.writeInt(points.length);
+            out.writeInt(points.length == 0 ? 0 : points[0].length);
+            for (int[] row : points) {
+                for (int value : row) {
+                    out.writeInt(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a golden output written by writeGolden.
+     *
+     * @param file File to read.
+     * @return Array of int[y][x] point values.
+     * @throws IOException If the file could not be read or is not a golden file.
+     */
+    static int[][] readGolden(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != GOLDEN_MAGIC || in.readInt() != GOLDEN_VERSION) {
+                throw new IOException("not a version " + GOLDEN_VERSION + " golden file " + file.getName());
+            }
+            int height = in.readInt();
+            int width = in.readInt();
+            int[][] points = new int[height][width];
+            for (int[] row : points) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = in.readInt();
+                }
+            }
+            return points;
+        }
+    }
+
+    /**
+     * Compares two outputs pixel by pixel.
+     *
+     * @return Array of {number of pixels which differ, largest difference}, or {-1, 0} if the sizes differ.
+     */
+    private static int[] compare(int[][] expected, int[][] actual) {
+        if (expected.length != actual.length || (expected.length > 0 && expected[0].length != actual[0].length)) {
+            return new int[]{-1, 0};
+        }
+        int mismatched = 0;
+        int maxDifference = 0;
+        for (int y = 0; y < expected.length; y++) {
+            for (int x = 0; x < expected[y].length; x++) {
+                int difference = Math.abs(expected[y][x] - actual[y][x]);
+                if (difference > 0) {
+                    mismatched++;
+                    maxDifference = Math.max(maxDifference, difference);
+                }
+            }
+        }
+        return new int[]{mismatched, maxDifference};
+    }
+
+    /**
+     * Main method, records or checks the golden outputs and exits with status 1 if any engine failed.
+     *
+     * @param args goldenDirectory [--record]
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 1) {
+            System.out.println("Usage: RenderRegression goldenDirectory [--record]");
+            return;
+        }
+
+        File goldenDirectory = new File(args[0]);
+        boolean record = args.length > 1 && "--record".equals(args[1]);
+
+        RenderRegression regression = new RenderRegression();
+        if (record) {
+            regression.record(goldenDirectory);
+        } else if (!regression.check(goldenDirectory)) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpeculativeRenderer uses idle time after a frame has been shown to render the views the user is likely to go to
+ * next, on a single low priority thread. It renders a margin around the current view so that a pan within the margin
+ * can be put together from pixels already calculated, and the view zoomed in around the cursor. Any real input
+ * cancels the speculation straight away, work is checked for cancellation after every row. Moving the cursor only
+ * retargets the zoom, leaving the margin to carry on.
+ *
+ * Views are calculated on a pixel grid given by the bounds {minReal, maxReal, minImaginary, maxImaginary} of the
+ * view at offset 0, pixel (x, y) of the view at grid offset (gridX, gridY) being calculated exactly as
+ * MandelbrotCalculator.calcRegionParallel calculates pixel (gridX + x, gridY + y) of those bounds. The margin uses the
+ * same grid, so a panned view put together from it is exactly what calculating the panned view would give.
+ */
+public class SpeculativeRenderer {
+
+    // Number of full views to keep, the view on screen and the views rendered ahead of it
+    private static final int MAX_CACHED_VIEWS = 3;
+
+    private ExecutorService executor;
+    private AtomicInteger generation;
+    private AtomicInteger zoomGeneration;
+    private Future<?> running;
+    private Future<?> runningZoom;
+
+    // Views rendered ahead of time and the last view shown, keyed by Model.getViewKey
+    private LinkedHashMap<String, int[][]> cache;
+
+    // The last view with a margin of pixels calculated around it
+    private volatile PanMargin panMargin;
+
+    /**
+     * Points calculated for a view plus a margin around it, with the view's pixel [0][0] at [margin][margin].
+     */
+    private static class PanMargin {
+        private int[][] points;
+        private int margin;
+        private int width;
+        private int height;
+        private double[] grid;
+        private int gridX;
+        private int gridY;
+        private int maxIterations;
+        private String kernelId;
+    }
+
+    /**
+     * Constructor, creates the low priority thread and the cache.
+     */
+    public SpeculativeRenderer() {
+        generation = new AtomicInteger();
+        zoomGeneration = new AtomicInteger();
+        cache = new LinkedHashMap<String, int[][]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[][]> eldest) {
+                return size() > MAX_CACHED_VIEWS;
+            }
+        };
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SpeculativeRenderer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stops any speculative work in progress, called as soon as real input arrives.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+        if (runningZoom != null) {
+            runningZoom.cancel(true);
+            runningZoom = null;
+        }
+    }
+
+    /**
+     * Starts rendering the likely next views in the background, cancelling any earlier speculation.
+     *
+     * @param kernel           Formula to render with.
+     * @param points           Points of the view currently shown, reused for the centre of the pan margin.
+     * @param grid          Array of {minReal, maxReal, minImaginary, maxImaginary} of the grid at offset 0.
+     * @param gridX         Grid pixel at the left edge of the current view.
+     * @param gridY         Grid pixel at the top edge of the current view.
+     * @param maxIterations Max iterations to render with.
+     * @param zoomKey       Key of the view zoomed in around the cursor.
+     * @param zoomView      Array of {minReal, maxReal, minImaginary, maxImaginary} of the zoomed view, on its own grid.
+     */
+    public void speculate(FractalKernel kernel, int[][] points, double[] grid, int gridX, int gridY, int maxIterations,
+                          String zoomKey, double[] zoomView) {
+        cancel();
+        final int startGeneration = generation.get();
+
+        running = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                renderMargin(startGeneration, kernel, points, grid, gridX, gridY, maxIterations);
+            }
+        });
+        retargetZoom(kernel, points[0].length, points.length, maxIterations, zoomKey, zoomView);
+    }
+
+    /**
+     * Replaces the zoomed view being rendered, for when the cursor moves. The pan margin is left to carry on.
+     *
+     * @param kernel        Formula to render with.
+     * @param width         Width of the view in pixels.
+     * @param height        Height of the view in pixels.
+     * @param maxIterations Max iterations to render with.
+     * @param zoomKey       Key of the view zoomed in around the cursor.
+     * @param zoomView      Array of {minReal, maxReal, minImaginary, maxImaginary} of the zoomed view, on its own grid.
+     */
+    public void retargetZoom(FractalKernel kernel, int width, int height, int maxIterations, String zoomKey,
+                             double[] zoomView) {
+        final int startGeneration = generation.get();
+        final int startZoomGeneration = zoomGeneration.incrementAndGet();
+        if (runningZoom != null) {
+            runningZoom.cancel(true);
+        }
+
+        runningZoom = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (cache) {
+                    if (cache.containsKey(zoomKey)) {
+                        return;
+                    }
+                }
+                int[][] zoomed = new int[height][width];
+
+                // Work out the steps the same way a fresh calculation on the zoomed view's grid does
+                double realStep = (zoomView[1] - zoomView[0]) / width;
+                double imaginaryStep = (zoomView[3] - zoomView[2]) / height;
+                if (renderRows(startGeneration, startZoomGeneration, kernel, zoomed, 0, 0, width, height, 0, 0,
+                        zoomView[0], zoomView[2], realStep, imaginaryStep, maxIterations)) {
+                    synchronized (cache) {
+                        cache.put(zoomKey, zoomed);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets a view that was rendered speculatively.
+     *
+     * @param key Key of the view from Model.getViewKey.
+     * @return Array of int[y][x] point values, or null if the view has not been rendered.
+     */
+    public int[][] getCached(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    /**
+     * Remembers the points of a view that has just been calculated, so asking for the same view again is free
+     * and so they can be reused for the centre of the pan margin.
+     *
+     * @param key    Key of the view from Model.getViewKey.
+     * @param points Array of int[y][x] point values, must not be changed afterwards.
+     */
+    public void remember(String key, int[][] points) {
+        synchronized (cache) {
+            cache.put(key, points);
+        }
+    }
+
+    /**
+     * Puts together a view from the pan margin, if the view is on the margin's grid and its offset stays inside
+     * the margin. The points are exactly those a fresh calculation of the view would give.
+     *
+     * @return Array of int[y][x] point values, or null if the margin does not cover the view.
+     */
+    public int[][] getPanned(FractalKernel kernel, int width, int height, double[] grid, int gridX, int gridY,
+                             int maxIterations) {
+        PanMargin pan = panMargin;
+        if (pan == null || pan.width != width || pan.height != height || !Arrays.equals(pan.grid, grid)
+                || pan.maxIterations != maxIterations || !pan.kernelId.equals(kernel.getId())) {
+            return null;
+        }
+
+        int dx = gridX - pan.gridX;
+        int dy = gridY - pan.gridY;
+        if (Math.abs(dx) > pan.margin || Math.abs(dy) > pan.margin) {
+            return null;
+        }
+
+        int[][] points = new int[height][];
+        for (int y = 0; y < height; y++) {
+            int[] row = new int[width];
+            System.arraycopy(pan.points[y + pan.margin + dy], pan.margin + dx, row, 0, width);
+            points[y] = row;
+        }
+        return points;
+    }
+
+    /**
+     * Renders a margin of a quarter of the view's smaller side around the current view, reusing its points
+     * for the centre.
+     */
+    private void renderMargin(int startGeneration, FractalKernel kernel, int[][] points, double[] grid, int gridX,
+                              int gridY, int maxIterations) {
+        int height = points.length;
+        int width = points[0].length;
+        int margin = Math.min(width, height) / 4;
+
+        PanMargin current = panMargin;
+        if (current != null && Arrays.equals(current.grid, grid) && current.gridX == gridX && current.gridY == gridY
+                && current.width == width && current.height == height
+                && current.maxIterations == maxIterations && current.kernelId.equals(kernel.getId())) {
+            return;
+        }
+
+        int[][] extended = new int[height + 2 * margin][width + 2 * margin];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(points[y], 0, extended[y + margin], margin, width);
+        }
+
+        // Step the same way a fresh calculation on the grid does, with extended pixel margin at grid pixel gridX
+        double realStep = (grid[1] - grid[0]) / width;
+        double imaginaryStep = (grid[3] - grid[2]) / height;
+        int extendedWidth = width + 2 * margin;
+        int originX = margin - gridX;
+        int originY = margin - gridY;
+
+        // Top and bottom strips, then the left and right strips between them
+        boolean finished = renderRows(startGeneration, -1, kernel, extended, 0, 0, extendedWidth, margin,
+                originX, originY, grid[0], grid[2], realStep, imaginaryStep, maxIterations)
+                && renderRows(startGeneration, -1, kernel, extended, 0, margin + height, extendedWidth, margin,
+                originX, originY, grid[0], grid[2], realStep, imaginaryStep, maxIterations)
+                && renderRows(startGeneration, -1, kernel, extended, 0, margin, margin, height,
+                originX, originY, grid[0], grid[2], realStep, imaginaryStep, maxIterations)
+                && renderRows(startGeneration, -1, kernel, extended, margin + width, margin, margin, height,
+                originX, originY, grid[0], grid[2], realStep, imaginaryStep, maxIterations);
+
+        if (finished) {
+            PanMargin pan = new PanMargin();
+            pan.points = extended;
+            pan.margin = margin;
+            pan.width = width;
+            pan.height = height;
+            pan.grid = grid;
+            pan.gridX = gridX;
+            pan.gridY = gridY;
+            pan.maxIterations = maxIterations;
+            pan.kernelId = kernel.getId();
+            panMargin = pan;
+        }
+    }
+
+    /**
+     * Calculates a rectangle of points, checking after every row whether the speculation has been cancelled.
+     * Point [y][x] is calculated at minReal + (x - originX) * realStep, minImaginary + (y - originY) * imaginaryStep.
+     *
+     * @param startZoomGeneration Zoom generation the work was started in, or -1 if a retarget should not stop it.
+     * @return True if the rectangle was finished, false if it was cancelled.
+     */
+    private boolean renderRows(int startGeneration, int startZoomGeneration, FractalKernel kernel, int[][] points,
+                               int startX, int startY, int width, int height, int originX, int originY,
+                               double minReal, double minImaginary, double realStep, double imaginaryStep,
+                               int maxIterations) {
+        for (int y = startY; y < startY + height; y++) {
+            if (generation.get() != startGeneration || Thread.currentThread().isInterrupted()
+                    || (startZoomGeneration >= 0 && zoomGeneration.get() != startZoomGeneration)) {
+                return false;
+            }
+            int[] row = points[y];
+            double cImaginary = minImaginary + (y - originY) * imaginaryStep;
+            for (int x = startX; x < startX + width; x++) {
+                double cReal = minReal + (x - originX) * realStep;
+                row[x] = kernel.iterate(cReal, cImaginary, maxIterations, MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+            }
+        }
+        return true;
+    }
+}
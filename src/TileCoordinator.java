@@ -0,0 +1,376 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TileCoordinator splits a view of the Mandelbrot set into tiles and hands them out to TileWorker processes.
+ * Each worker has its own thread pulling tiles from a shared queue, so faster workers take more tiles, and each
+ * worker spreads a tile across all of its cores, so the render time scales with the number of workers and their
+ * cores. A tile that fails is put back on the queue for another attempt, and a worker whose connection fails is
+ * reconnected with a backoff, only being dropped if it stays unreachable.
+ */
+public class TileCoordinator {
+
+    // Number of times a tile is tried before the render is abandoned
+    private static final int MAX_ATTEMPTS = 3;
+    // Timeouts when talking to a worker. A tile may take as long as MIN_READ_TIMEOUT plus its pixels times max
+    // iterations at MIN_ITERATIONS_PER_MILLI, a small fraction of what one core manages, before the worker is
+    // taken to be stuck, so deep tiles are not mistaken for a broken connection
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final int MIN_READ_TIMEOUT = 10000;
+    private static final long MIN_ITERATIONS_PER_MILLI = 20000;
+    // Reconnecting to a worker, the wait doubles after each failed connect up to MAX_BACKOFF
+    private static final int MAX_CONNECT_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 2000;
+
+    // Put on the queue once the render is over so waiting workers stop straight away
+    private static final Tile DONE = new Tile(0, 0, 0, 0);
+
+    private List<InetSocketAddress> workers;
+    private int tileSize;
+
+    /**
+     * Constructor, saves the workers to use and the size of the tiles to split views into.
+     *
+     * @param workers  Addresses of the TileWorker processes.
+     * @param tileSize Width and height of each tile in pixels.
+     */
+    public TileCoordinator(List<InetSocketAddress> workers, int tileSize) {
+        this.workers = workers;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * A rectangular tile of the view along with how many times it has been tried.
+     */
+    private static class Tile {
+        private int startX;
+        private int startY;
+        private int width;
+        private int height;
+        private int attempts;
+
+        Tile(int startX, int startY, int width, int height) {
+            this.startX = startX;
+            this.startY = startY;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Calculates the Mandelbrot set across the workers, with the same output as MandelbrotCalculator.calcMandelbrotSet.
+     *
+     * @param xResolution   the number of pixels on the x-axis.
+     * @param yResolution   the number of pixels on the y-axis.
+     * @param minReal       the lower real bound of the view.
+     * @param maxReal       the upper real bound of the view.
+     * @param minImaginary  the lower imaginary bound of the view.
+     * @param maxImaginary  the upper imaginary bound of the view.
+     * @param maxIterations the maximum number of iterations to iterate the complex formula.
+     * @param radiusSquared the squared radius used to decide whether Z escaped.
+     * @return Array of int[y][x] point values.
+     * @throws IOException If a tile failed too many times or every worker failed.
+     */
+    public int[][] render(int xResolution, int yResolution, double minReal, double maxReal, double minImaginary,
+                          double maxImaginary, int maxIterations, double radiusSquared) throws IOException {
+
+        int[][] mandelbrotData = new int[yResolution][xResolution];
+
+        // Split the view into tiles
+        LinkedBlockingQueue<Tile> queue = new LinkedBlockingQueue<>();
+        for (int y = 0; y < yResolution; y += tileSize) {
+            for (int x = 0; x < xResolution; x += tileSize) {
+                queue.add(new Tile(x, y, Math.min(tileSize, xResolution - x), Math.min(tileSize, yResolution - y)));
+            }
+        }
+
+        AtomicInteger remaining = new AtomicInteger(queue.size());
+        String[] failure = new String[1];
+
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (InetSocketAddress worker : workers) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker(worker, queue, remaining, failure, mandelbrotData, xResolution, yResolution,
+                            minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared);
+                }
+            }, "TileCoordinator-" + worker.getPort());
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("TileCoordinator render: interrupted");
+            }
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new IOException(failure[0]);
+            }
+        }
+        if (remaining.get() > 0) {
+            throw new IOException("TileCoordinator render: every worker failed with " + remaining.get() + " tiles left");
+        }
+        return mandelbrotData;
+    }
+
+    /**
+     * Keeps taking tiles from the queue and sending them to one worker until every tile is done.
+     * If the connection fails then the tile is requeued and the worker is reconnected after a backoff, and the
+     * worker is only dropped once it has failed to connect MAX_CONNECT_ATTEMPTS times in a row. A tile the worker
+     * answers with an error is requeued but the connection is kept, as the worker itself is still healthy.
+     */
+    private void runWorker(InetSocketAddress worker, LinkedBlockingQueue<Tile> queue, AtomicInteger remaining,
+                           String[] failure, int[][] mandelbrotData, int xResolution, int yResolution,
+                           double minReal, double maxReal, double minImaginary, double maxImaginary,
+                           int maxIterations, double radiusSquared) {
+
+        int connectFailures = 0;
+        long backoff = INITIAL_BACKOFF;
+
+        while (remaining.get() > 0 && !hasFailed(failure)) {
+            try (Socket socket = new Socket()) {
+                try {
+                    socket.connect(worker, CONNECT_TIMEOUT);
+                } catch (IOException e) {
+                    connectFailures++;
+                    System.out.println("TileCoordinator runWorker " + worker + ": " + e.getMessage());
+                    if (connectFailures >= MAX_CONNECT_ATTEMPTS) {
+                        return;
+                    }
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                    continue;
+                }
+                socket.setTcpNoDelay(true);
+
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+                while (remaining.get() > 0 && !hasFailed(failure)) {
+                    Tile tile = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (tile == null) {
+                        // Other workers may still requeue tiles that failed
+                        continue;
+                    }
+                    if (tile == DONE) {
+                        return;
+                    }
+
+                    String error;
+                    try {
+                        socket.setSoTimeout(readTimeout(tile, maxIterations));
+                        error = sendTile(tile, out, in, mandelbrotData, xResolution, yResolution, minReal, maxReal,
+                                minImaginary, maxImaginary, maxIterations, radiusSquared);
+                    } catch (IOException e) {
+                        // The connection is broken, try the tile again and reconnect
+                        retry(tile, queue, failure, e.getMessage());
+                        break;
+                    }
+
+                    if (error == null) {
+                        if (remaining.decrementAndGet() == 0) {
+                            wakeWorkers(queue);
+                        }
+                        connectFailures = 0;
+                        backoff = INITIAL_BACKOFF;
+                    } else {
+                        retry(tile, queue, failure, "worker error " + error);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("TileCoordinator runWorker " + worker + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends one tile to a worker and reads the result straight into the output.
+     *
+     * @return Null if the tile was calculated, or the worker's message if it answered with an error.
+     * @throws IOException If the connection failed, after which it can no longer be used.
+     */
+    private String sendTile(Tile tile, DataOutputStream out, DataInputStream in, int[][] mandelbrotData,
+                            int xResolution, int yResolution, double minReal, double maxReal, double minImaginary,
+                            double maxImaginary, int maxIterations, double radiusSquared) throws IOException {
+        out.writeInt(xResolution);
+        out.writeInt(yResolution);
+        out.writeInt(tile.startX);
+        out.writeInt(tile.startY);
+        out.writeInt(tile.width);
+        out.writeInt(tile.height);
+        out.writeDouble(minReal);
+        out.writeDouble(maxReal);
+        out.writeDouble(minImaginary);
+        out.writeDouble(maxImaginary);
+        out.writeInt(maxIterations);
+        out.writeDouble(radiusSquared);
+        out.flush();
+
+        if (in.readInt() != TileWorker.STATUS_OK) {
+            return in.readUTF();
+        }
+
+        // Read straight into the output, tiles never overlap so no locking is needed
+        for (int y = 0; y < tile.height; y++) {
+            int[] row = mandelbrotData[tile.startY + y];
+            for (int x = 0; x < tile.width; x++) {
+                row[tile.startX + x] = in.readInt();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Works out how long to wait for a tile, from the most iterations it could take.
+     *
+     * @return The read timeout in milliseconds.
+     */
+    private static int readTimeout(Tile tile, int maxIterations) {
+        long iterations = (long) tile.width * tile.height * maxIterations;
+        return (int) Math.min(Integer.MAX_VALUE, MIN_READ_TIMEOUT + iterations / MIN_ITERATIONS_PER_MILLI);
+    }
+
+    /**
+     * Puts a failed tile back on the queue, or records a failure if it has been tried too many times.
+     */
+    private void retry(Tile tile, LinkedBlockingQueue<Tile> queue, String[] failure, String message) {
+        tile.attempts++;
+        System.out.println("TileCoordinator retry: tile " + tile.startX + "," + tile.startY + " failed: " + message);
+        if (tile.attempts >= MAX_ATTEMPTS) {
+            synchronized (failure) {
+                failure[0] = "TileCoordinator render: tile " + tile.startX + "," + tile.startY + " failed "
+                        + tile.attempts + " times";
+            }
+            wakeWorkers(queue);
+        } else {
+            queue.add(tile);
+        }
+    }
+
+    /**
+     * Puts a DONE marker on the queue for every worker, so none are left waiting for a tile once the render is over.
+     */
+    private void wakeWorkers(LinkedBlockingQueue<Tile> queue) {
+        for (int i = 0; i < workers.size(); i++) {
+            queue.add(DONE);
+        }
+    }
+
+    /**
+     * @return True if a tile has failed too many times.
+     */
+    private boolean hasFailed(String[] failure) {
+        synchronized (failure) {
+            return failure[0] != null;
+        }
+    }
+
+    /**
+     * Starts TileWorker processes on this machine to stand in for remote nodes.
+     *
+     * @param count    Number of workers to start.
+     * @param basePort Port of the first worker, the rest use the following ports.
+     * @return The started processes, which should be destroyed when finished.
+     * @throws IOException If a worker could not be started or never started listening.
+     */
+    public static List<Process> startLocalWorkers(int count, int basePort) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+
+        ArrayList<Process> processes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", classpath, "TileWorker", String.valueOf(basePort + i));
+            builder.inheritIO();
+            processes.add(builder.start());
+        }
+
+        // Wait until every worker is accepting connections
+        for (int i = 0; i < count; i++) {
+            waitForWorker(new InetSocketAddress("localhost", basePort + i));
+        }
+        return processes;
+    }
+
+    /**
+     * Blocks until a worker accepts a connection, giving up after a few seconds.
+     */
+    private static void waitForWorker(InetSocketAddress address) throws IOException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, CONNECT_TIMEOUT);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("TileCoordinator waitForWorker: " + address + " never started", e);
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("TileCoordinator waitForWorker: interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts local workers and times a render of the initial view with them.
+     *
+     * @param args workerCount [resolution] [maxIterations] [basePort]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: TileCoordinator workerCount [resolution] [maxIterations] [basePort]");
+            return;
+        }
+        int workerCount = Integer.parseInt(args[0]);
+        int resolution = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int maxIterations = args.length > 2 ? Integer.parseInt(args[2]) : MandelbrotCalculator.INITIAL_MAX_ITERATIONS;
+        int basePort = args.length > 3 ? Integer.parseInt(args[3]) : 9100;
+
+        List<Process> processes = startLocalWorkers(workerCount, basePort);
+        try {
+            ArrayList<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < workerCount; i++) {
+                addresses.add(new InetSocketAddress("localhost", basePort + i));
+            }
+            TileCoordinator coordinator = new TileCoordinator(addresses, 128);
+
+            long start = System.nanoTime();
+            coordinator.render(resolution, resolution,
+                    MandelbrotCalculator.INITIAL_MIN_REAL,
+                    MandelbrotCalculator.INITIAL_MAX_REAL,
+                    MandelbrotCalculator.INITIAL_MIN_IMAGINARY,
+                    MandelbrotCalculator.INITIAL_MAX_IMAGINARY,
+                    maxIterations,
+                    MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            System.out.println("Rendered " + resolution + "x" + resolution + " with " + workerCount
+                    + " workers in " + millis + "ms");
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TileLoadTest fires tile requests at a TileServer from a number of concurrent clients and reports the
+ * p50 and p99 latency. Tiles are picked at random from the first few zoom levels so that clients regularly
+ * ask for the same tiles at the same time, which exercises the cache and the deduplication of renders.
+ */
+public class TileLoadTest {
+
+    private String baseUrl;
+    private int concurrency;
+    private int requests;
+    private int maxZoom;
+
+    /**
+     * Constructor, saves the load to generate.
+     *
+     * @param baseUrl     Address of the server, eg http://localhost:8080
+     * @param concurrency Number of clients sending requests at the same time.
+     * @param requests    Total number of requests to send.
+     * @param maxZoom     Deepest zoom level to request tiles from.
+     */
+    public TileLoadTest(String baseUrl, int concurrency, int requests, int maxZoom) {
+        this.baseUrl = baseUrl;
+        this.concurrency = concurrency;
+        this.requests = requests;
+        this.maxZoom = maxZoom;
+    }
+
+    /**
+     * Sends the requests and prints the latency percentiles and throughput.
+     *
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     */
+    public void run() throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        Thread[] clients = new Thread[concurrency];
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            Random random = new Random(i);
+            clients[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int request;
+                    while ((request = next.getAndIncrement()) < requests) {
+                        int z = random.nextInt(maxZoom + 1);
+                        int x = random.nextInt(1 << z);
+                        int y = random.nextInt(1 << z);
+
+                        long requestStart = System.nanoTime();
+                        if (!fetch(baseUrl + "/" + z + "/" + x + "/" + y + ".png")) {
+                            failures.incrementAndGet();
+                        }
+                        latencies[request] = System.nanoTime() - requestStart;
+                    }
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("%d requests at concurrency %d in %.2fs (%.1f req/s), %d failed",
+                requests, concurrency, seconds, requests / seconds, failures.get()));
+        System.out.println(String.format("p50 %.2fms  p99 %.2fms  max %.2fms",
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6, latencies[requests - 1] / 1e6));
+    }
+
+    /**
+     * Requests a url and reads the whole response.
+     *
+     * @param address Url to request.
+     * @return True if the server answered 200.
+     */
+    private boolean fetch(String address) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Drain the body so the connection can be reused
+                }
+            }
+            return connection.getResponseCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets a percentile from sorted values using the nearest rank.
+     *
+     * @param sorted  Values in ascending order.
+     * @param percent Percentile to get.
+     * @return The value at that percentile.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * Main method, runs a load test against a running TileServer.
+     *
+     * @param args baseUrl [concurrency] [requests] [maxZoom]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: TileLoadTest baseUrl [concurrency] [requests] [maxZoom]");
+            return;
+        }
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int maxZoom = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+        new TileLoadTest(args[0], concurrency, requests, maxZoom).run();
+    }
+}
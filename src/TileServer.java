@@ -0,0 +1,284 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * TileServer is a headless HTTP server which serves slippy map style /{z}/{x}/{y}.png tiles of the Mandelbrot set.
+ * Zoom level z splits the initial view into 2^z by 2^z square tiles. Rendered tiles are kept in a bounded least
+ * recently used cache, and concurrent requests for a tile which is still being rendered wait on the same render
+ * rather than starting another.
+ */
+public class TileServer {
+
+    // Width and height of each tile in pixels
+    static final int TILE_SIZE = 256;
+
+    // Square area covered at zoom level 0, centred on the initial view
+    private static final double WORLD_SIZE = MandelbrotCalculator.INITIAL_MAX_REAL - MandelbrotCalculator.INITIAL_MIN_REAL;
+    private static final double WORLD_MIN_REAL = MandelbrotCalculator.INITIAL_MIN_REAL;
+    private static final double WORLD_MIN_IMAGINARY = (MandelbrotCalculator.INITIAL_MIN_IMAGINARY
+            + MandelbrotCalculator.INITIAL_MAX_IMAGINARY - WORLD_SIZE) / 2;
+
+    // Deepest zoom level served, beyond this doubles run out of precision
+    private static final int MAX_ZOOM = 40;
+
+    private MandelbrotCalculator mandelCalc;
+    private int max_iterations;
+    private float colorHue = 3.0f;
+
+    // Rendered tiles in least recently used order, and the renders which are still running
+    private LinkedHashMap<String, byte[]> cache;
+    private ConcurrentHashMap<String, FutureTask<byte[]>> inFlight;
+
+    private HttpServer server;
+
+    /**
+     * Constructor, creates the calculator and the tile cache.
+     *
+     * @param maxIterations Max iterations to render tiles with.
+     * @param cacheSize     Max number of tiles to keep in the cache.
+     */
+    public TileServer(int maxIterations, int cacheSize) {
+        this.mandelCalc = new MandelbrotCalculator();
+        this.max_iterations = maxIterations;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Starts serving tiles on the given port. Each request is handled on its own thread, using virtual threads
+     * when the running JDK has them.
+     *
+     * @param port Port to listen on.
+     * @throws IOException If the server could not be started.
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        server.setExecutor(createExecutor());
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting at most a second for requests in progress.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+        }
+    }
+
+    /**
+     * Creates a thread per task executor, with virtual threads on JDKs that support them and platform threads otherwise.
+     *
+     * @return Executor to handle requests with.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Parses the tile coordinates from the request path and writes the tile back as a png.
+     *
+     * @param exchange Request to answer.
+     * @throws IOException If the response could not be written.
+     */
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        try {
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            if (!"GET".equals(exchange.getRequestMethod()) || parts.length != 4 || !parts[3].endsWith(".png")) {
+                sendError(exchange, 404, "Expected /{z}/{x}/{y}.png");
+                return;
+            }
+
+            int z;
+            // Columns and rows go past the int range above zoom 31
+            long x;
+            long y;
+            try {
+                z = Integer.parseInt(parts[1]);
+                x = Long.parseLong(parts[2]);
+                y = Long.parseLong(parts[3].substring(0, parts[3].length() - ".png".length()));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Tile coordinates must be integers");
+                return;
+            }
+
+            if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= (1L << z) || y >= (1L << z)) {
+                sendError(exchange, 404, "No such tile");
+                return;
+            }
+
+            byte[] png = getTile(z, x, y);
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, png.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(png);
+            }
+        } catch (Exception e) {
+            System.out.println("TileServer handleRequest: " + e.getMessage());
+            // Once the headers have gone the only thing left to do is close the connection
+            if (exchange.getResponseCode() == -1) {
+                sendError(exchange, 500, "Failed to render tile");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Writes a plain text error response.
+     */
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Gets a tile from the cache, or renders it. If another request is already rendering the tile then this waits
+     * for that render instead of starting a second one.
+     *
+     * @param z Zoom level.
+     * @param x Column of the tile.
+     * @param y Row of the tile.
+     * @return The tile encoded as a png.
+     * @throws Exception If the tile could not be rendered.
+     */
+    byte[] getTile(int z, long x, long y) throws Exception {
+        String key = z + "/" + x + "/" + y;
+
+        synchronized (cache) {
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                // A render of this tile may have finished and left inFlight between the cache miss above and
+                // this task being registered, so look in the cache again before rendering
+                synchronized (cache) {
+                    byte[] cached = cache.get(key);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+                return renderTile(z, x, y);
+            }
+        });
+
+        FutureTask<byte[]> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            return getResult(running);
+        }
+
+        try {
+            task.run();
+            byte[] png = getResult(task);
+            synchronized (cache) {
+                cache.put(key, png);
+            }
+            return png;
+        } finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * Waits for a render, unwrapping the exception it failed with.
+     */
+    private byte[] getResult(FutureTask<byte[]> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Calculates a tile and encodes it as a png.
+     *
+     * @param z Zoom level.
+     * @param x Column of the tile.
+     * @param y Row of the tile.
+     * @return The png bytes.
+     * @throws IOException If the image could not be encoded.
+     */
+    private byte[] renderTile(int z, long x, long y) throws IOException {
+        double tileSpan = WORLD_SIZE / (1L << z);
+        double minReal = WORLD_MIN_REAL + x * tileSpan;
+        double minImaginary = WORLD_MIN_IMAGINARY + y * tileSpan;
+
+        int[][] points = mandelCalc.calcMandelbrotSet(TILE_SIZE, TILE_SIZE,
+                minReal,
+                minReal + tileSpan,
+                minImaginary,
+                minImaginary + tileSpan,
+                max_iterations,
+                MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+
+        // Color the same way as the Delegate panel
+        int[] rgb = new int[TILE_SIZE * TILE_SIZE];
+        for (int row = 0; row < TILE_SIZE; row++) {
+            for (int column = 0; column < TILE_SIZE; column++) {
+                int value = points[row][column];
+                if (value != max_iterations) {
+                    rgb[row * TILE_SIZE + column] = Color.HSBtoRGB((float) value * colorHue / (float) max_iterations, 1.0f, 1.0f);
+                }
+            }
+        }
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, rgb, 0, TILE_SIZE);
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    /**
+     * Main method, starts a headless tile server.
+     *
+     * @param args [port] [maxIterations] [cacheSize]
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int maxIterations = args.length > 1 ? Integer.parseInt(args[1]) : MandelbrotCalculator.INITIAL_MAX_ITERATIONS;
+        int cacheSize = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+
+        new TileServer(maxIterations, cacheSize).start(port);
+        System.out.println("Serving tiles on http://localhost:" + port + "/{z}/{x}/{y}.png");
+    }
+}
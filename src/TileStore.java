@@ -0,0 +1,518 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * TileStore keeps calculated views on local disk so they survive between sessions.
+ * Each view is stored in its own file named after a hash of its key, its rows delta encoded and deflated, and found
+ * through an index file which records the key, file and size of every view in least recently used order. When the
+ * store grows past its size limit the least recently used views are deleted. Views are written on a background
+ * thread so that storing a view never holds up the render.
+ *
+ * Several programs may share the store at once. Every view file starts with its key, so the index can always be
+ * rebuilt from the files themselves, and each write merges with the index on disk while holding a lock on the
+ * store, so no program drops the views another has stored and the size limit covers them all.
+ */
+public class TileStore {
+
+    // Default location and size limit of the shared store
+    private static final String DEFAULT_DIRECTORY = ".mandelbrot-tiles";
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String INDEX_FILE = "index";
+    private static final String LOCK_FILE = "index.lock";
+    private static final String TILE_SUFFIX = ".tile";
+    private static final int MAGIC = 0x4D544C32;
+    private static final long STALE_TEMPORARY = 60 * 1000;
+    // Views waiting to be written, each up to width * height ints
+    private static final int MAX_PENDING_WRITES = 2;
+
+    private static TileStore defaultStore;
+
+    private File directory;
+    private long maxBytes;
+    private long totalBytes;
+
+    // Stored views in least recently used order, key to entry
+    private LinkedHashMap<String, Entry> index;
+    // Keys read or stored since the index was last saved, which are newer than anything in the index file
+    private LinkedHashSet<String> used = new LinkedHashSet<>();
+    private ExecutorService writer;
+    private Thread shutdownHook;
+
+    /**
+     * A stored view in the index.
+     */
+    private static class Entry {
+        private String fileName;
+        private long size;
+
+        Entry(String fileName, long size) {
+            this.fileName = fileName;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Constructor, loads the index from the directory, creating the directory if needed.
+     *
+     * @param directory Directory to keep the views in.
+     * @param maxBytes  Size limit of the stored views.
+     */
+    public TileStore(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.index = new LinkedHashMap<>(16, 0.75f, true);
+        directory.mkdirs();
+        try {
+            FileLock lock = lockStore();
+            try {
+                loadIndex();
+            } finally {
+                unlockStore(lock);
+            }
+        } catch (IOException e) {
+            System.out.println("TileStore: " + e.getMessage());
+        }
+
+        // Only a few views wait to be written, when the writer falls behind the oldest waiting view is dropped
+        // rather than keeping every view calculated meanwhile in memory
+        writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_WRITES), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TileStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+        // Give writes still queued a chance to finish when the program exits
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                finishWrites();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Finishes the writes still queued and stops the background thread, for a store which is no longer needed
+     * before the program exits. The store must not be used afterwards.
+     */
+    public void close() {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        finishWrites();
+    }
+
+    /**
+     * Stops the background thread once the writes still queued are done, waiting up to five seconds for them.
+     */
+    private void finishWrites() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the store shared by every model, kept in the user's home directory.
+     *
+     * @return The shared store.
+     */
+    public static synchronized TileStore getDefault() {
+        if (defaultStore == null) {
+            defaultStore = new TileStore(new File(System.getProperty("user.home"), DEFAULT_DIRECTORY), DEFAULT_MAX_BYTES);
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Reads a stored view. Views stored by another program since the index was loaded are found by their file name.
+     *
+     * @param key Key of the view, unique to its bounds, resolution, max iterations and kernel.
+     * @return Array of int[y][x] point values, or null if the view is not stored.
+     */
+    public int[][] get(String key) {
+        String fileName;
+        boolean indexed;
+        synchronized (this) {
+            Entry entry = index.get(key);
+            indexed = entry != null;
+            if (indexed) {
+                used.remove(key);
+                used.add(key);
+            }
+            fileName = indexed ? entry.fileName : null;
+        }
+
+        try {
+            if (!indexed) {
+                fileName = fileName(key);
+            }
+            File file = new File(directory, fileName);
+            if (!indexed && !file.exists()) {
+                return null;
+            }
+
+            int[][] points = readPoints(file, key);
+            if (!indexed) {
+                synchronized (this) {
+                    if (!index.containsKey(key)) {
+                        index.put(key, new Entry(fileName, file.length()));
+                        totalBytes += file.length();
+                        used.add(key);
+                    }
+                }
+            }
+            return points;
+        } catch (IOException e) {
+            // Most likely evicted by another program sharing the store
+            System.out.println("TileStore get: " + e.getMessage());
+            synchronized (this) {
+                Entry entry = index.remove(key);
+                used.remove(key);
+                if (entry != null) {
+                    totalBytes -= entry.size;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stores a view on the background thread, evicting the least recently used views if over the size limit.
+     * If the background thread is behind, the oldest view still waiting is dropped instead of stored.
+     *
+     * @param key    Key of the view, unique to its bounds, resolution, max iterations and kernel.
+     * @param points Array of int[y][x] point values, must not be changed afterwards.
+     */
+    public void put(String key, int[][] points) {
+        synchronized (this) {
+            if (index.containsKey(key)) {
+                return;
+            }
+        }
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (TileStore.this) {
+                        if (index.containsKey(key)) {
+                            return;
+                        }
+                    }
+                    String fileName = fileName(key);
+                    File file = new File(directory, fileName);
+
+                    // Write to a temporary file of its own and move it into place, so no program ever reads half a
+                    // view, even when two programs store the same view at once
+                    File temporary = File.createTempFile(fileName, ".tmp", directory);
+                    try {
+                        writePoints(temporary, key, points);
+                        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } finally {
+                        temporary.delete();
+                    }
+
+                    FileLock lock = lockStore();
+                    try {
+                        synchronized (TileStore.this) {
+                            index.remove(key);
+                            index.put(key, new Entry(fileName, file.length()));
+                            used.remove(key);
+                            used.add(key);
+                            mergeIndex();
+                            totalBytes = 0;
+                            for (Entry entry : index.values()) {
+                                totalBytes += entry.size;
+                            }
+                            evict();
+                            saveIndex();
+                        }
+                    } finally {
+                        unlockStore(lock);
+                    }
+                } catch (IOException e) {
+                    System.out.println("TileStore put: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes least recently used views until the store is within its size limit.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = index.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            totalBytes -= entry.size;
+            new File(directory, entry.fileName).delete();
+        }
+    }
+
+    /**
+     * Locks the store against other programs while the index is read or changed. Blocks until the lock is free.
+     *
+     * @return The lock, which must be released with unlockStore.
+     */
+    private FileLock lockStore() throws IOException {
+        FileChannel channel = new RandomAccessFile(new File(directory, LOCK_FILE), "rw").getChannel();
+        try {
+            return channel.lock();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases a lock taken by lockStore and closes its channel.
+     */
+    private static void unlockStore(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    /**
+     * Builds the index from the index file followed by a scan of the directory. The scan finds views whose writer
+     * never got to add them to the index, which are treated as least recently used, and deletes views which cannot
+     * be read and temporary files left by a crash. Must hold the store lock.
+     */
+    private void loadIndex() {
+        LinkedHashMap<String, Entry> loaded = readIndexFile();
+
+        LinkedHashMap<String, Entry> rebuilt = new LinkedHashMap<>(16, 0.75f, true);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            // Oldest first, so views missing from the index are evicted in the order they were written
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".tmp")) {
+                    // Leave recent ones, another program may still be writing them
+                    if (System.currentTimeMillis() - file.lastModified() > STALE_TEMPORARY) {
+                        file.delete();
+                    }
+                } else if (name.endsWith(TILE_SUFFIX) && !containsFile(loaded, name)) {
+                    try {
+                        rebuilt.put(readKey(file), new Entry(name, file.length()));
+                    } catch (IOException e) {
+                        System.out.println("TileStore loadIndex: " + e.getMessage());
+                        file.delete();
+                    }
+                }
+            }
+        }
+        rebuilt.putAll(loaded);
+
+        index = rebuilt;
+        totalBytes = 0;
+        for (Entry entry : index.values()) {
+            totalBytes += entry.size;
+        }
+    }
+
+    /**
+     * Merges the index on disk, which other programs may have changed, into this one. The index file holds the
+     * order shared by every program, so it is kept, with views only this program knows of before it and the views
+     * this program used since it last saved after it. Views another program evicted are dropped. Must hold the
+     * store lock.
+     */
+    private void mergeIndex() {
+        LinkedHashMap<String, Entry> saved = readIndexFile();
+        LinkedHashMap<String, Entry> merged = new LinkedHashMap<>(16, 0.75f, true);
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            if (!saved.containsKey(entry.getKey()) && !used.contains(entry.getKey())
+                    && new File(directory, entry.getValue().fileName).exists()) {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Entry> entry : saved.entrySet()) {
+            if (!used.contains(entry.getKey())) {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String key : used) {
+            Entry entry = index.get(key);
+            if (entry != null && new File(directory, entry.fileName).exists()) {
+                merged.put(key, entry);
+            }
+        }
+        index = merged;
+        used.clear();
+    }
+
+    /**
+     * Reads the index file, one view per line as size, file name and key separated by tabs, least recently used
+     * first. Views whose file has gone missing are dropped.
+     *
+     * @return The views in the index file, in order.
+     */
+    private LinkedHashMap<String, Entry> readIndexFile() {
+        LinkedHashMap<String, Entry> loaded = new LinkedHashMap<>();
+        File file = new File(directory, INDEX_FILE);
+        if (!file.exists()) {
+            return loaded;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length == 3 && new File(directory, parts[1]).exists()) {
+                    loaded.put(parts[2], new Entry(parts[1], Long.parseLong(parts[0])));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("TileStore readIndexFile: " + e.getMessage());
+        }
+        return loaded;
+    }
+
+    /**
+     * @return True if one of the views is stored in the named file.
+     */
+    private static boolean containsFile(Map<String, Entry> views, String fileName) {
+        for (Entry entry : views.values()) {
+            if (entry.fileName.equals(fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it into place, so a crash never leaves half an index.
+     * Access order is saved whenever a view is stored, which is close enough for deciding what to evict.
+     * Must hold the store lock.
+     */
+    private void saveIndex() throws IOException {
+        File temporary = new File(directory, INDEX_FILE + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Entry> entry : new ArrayList<>(index.entrySet())) {
+                out.write(entry.getValue().size + "\t" + entry.getValue().fileName + "\t" + entry.getKey() + "\n");
+            }
+        }
+        Files.move(temporary.toPath(), new File(directory, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes a view as a header of magic, key, height and width followed by the deflated rows, each value stored
+     * as its difference from the value to its left so that the large flat areas compress well.
+     */
+    private static void writePoints(File file, String key, int[][] points) throws IOException {
+        int height = points.length;
+        int width = height == 0 ? 0 : points[0].length;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            out.writeInt(height);
+            out.writeInt(width);
+
+            DataOutputStream deflated = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED)), 65536));
+            for (int[] row : points) {
+                int previous = 0;
+                for (int value : row) {
+                    deflated.writeInt(value - previous);
+                    previous = value;
+                }
+            }
+            deflated.close();
+        }
+    }
+
+    /**
+     * Reads the key from the header of a view written by writePoints.
+     */
+    private static String readKey(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a tile file " + file.getName());
+            }
+            return in.readUTF();
+        }
+    }
+
+    /**
+     * Reads a view written by writePoints with a plain buffered read. A memory mapping was tried but gains nothing
+     * here, as the Inflater only takes arrays on Java 8 so the mapping would be copied to the heap anyway.
+     *
+     * @param key Key the view must have been stored under.
+     */
+    private static int[][] readPoints(File file, String key) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(key)) {
+                throw new IOException("tile file " + file.getName() + " is not of this view");
+            }
+            int height = in.readInt();
+            int width = in.readInt();
+
+            DataInputStream inflated = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), 65536));
+            byte[] row = new byte[width * 4];
+            int[][] points = new int[height][width];
+            for (int y = 0; y < height; y++) {
+                // Throws EOFException if the file is truncated
+                inflated.readFully(row);
+
+                int value = 0;
+                int[] pointsRow = points[y];
+                for (int x = 0; x < width; x++) {
+                    int i = x * 4;
+                    value += (row[i] << 24) | ((row[i + 1] & 0xFF) << 16) | ((row[i + 2] & 0xFF) << 8) | (row[i + 3] & 0xFF);
+                    pointsRow[x] = value;
+                }
+            }
+            return points;
+        }
+    }
+
+    /**
+     * Makes a file name for a key from its SHA-1 hash, as keys contain characters not allowed in file names.
+     */
+    private static String fileName(String key) throws IOException {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(TILE_SUFFIX).toString();
+        } catch (Exception e) {
+            throw new IOException("TileStore fileName: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * TileWorker is a standalone process which calculates tiles of the Mandelbrot set for a TileCoordinator.
+ * It listens on a local socket and answers each tile request on a connection until the coordinator closes it.
+ * Each tile is calculated with its rows spread across every core, so one connection keeps the whole node busy.
+ *
+ * Every request is written with a DataOutputStream as
+ * int xResolution, int yResolution, int startX, int startY, int width, int height,
+ * double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared
+ * and is answered with int STATUS_OK followed by the width * height iteration values row by row,
+ * or int STATUS_ERROR followed by a UTF message.
+ */
+public class TileWorker {
+
+    // Status codes sent back before each tile
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+
+    // Large enough for a typical tile to go out in one write
+    private static final int TILE_BUFFER_SIZE = 65536;
+
+    private MandelbrotCalculator mandelCalc;
+    private FractalKernel kernel;
+    private int port;
+
+    /**
+     * Constructor, creates the calculator and kernel used for every tile.
+     *
+     * @param port Port to listen on.
+     */
+    public TileWorker(int port) {
+        this.mandelCalc = new MandelbrotCalculator();
+        this.kernel = new MandelbrotKernel();
+        this.port = port;
+    }
+
+    /**
+     * Accepts coordinator connections forever, serving each on its own thread.
+     *
+     * @throws IOException If the port could not be listened on.
+     */
+    public void serve() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            acceptConnections(serverSocket);
+        }
+    }
+
+    /**
+     * Starts accepting coordinator connections on a background thread, for running a worker inside another program.
+     *
+     * @return The port listened on, useful when the worker was created with port 0 to pick any free port.
+     * @throws IOException If the port could not be listened on.
+     */
+    public int start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (ServerSocket s = serverSocket) {
+                    acceptConnections(s);
+                } catch (IOException e) {
+                    System.out.println("TileWorker start: " + e.getMessage());
+                }
+            }
+        }, "TileWorker-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the socket is closed, serving each on its own thread.
+     */
+    private void acceptConnections(ServerSocket serverSocket) throws IOException {
+        while (true) {
+            Socket socket = serverSocket.accept();
+            Thread connection = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    handleConnection(socket);
+                }
+            }, "TileWorker-" + socket.getPort());
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    /**
+     * Reads tile requests from the socket and writes the calculated tiles back until the socket is closed.
+     *
+     * @param socket Connection from a coordinator.
+     */
+    private void handleConnection(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), TILE_BUFFER_SIZE))) {
+
+            // Each tile is flushed as soon as it is written, so there is nothing to gain from Nagle's algorithm
+            s.setTcpNoDelay(true);
+
+            while (true) {
+                int xResolution;
+                try {
+                    xResolution = in.readInt();
+                } catch (EOFException e) {
+                    // Coordinator has finished with this connection
+                    return;
+                }
+                int yResolution = in.readInt();
+                int startX = in.readInt();
+                int startY = in.readInt();
+                int width = in.readInt();
+                int height = in.readInt();
+                double minReal = in.readDouble();
+                double maxReal = in.readDouble();
+                double minImaginary = in.readDouble();
+                double maxImaginary = in.readDouble();
+                int maxIterations = in.readInt();
+                double radiusSquared = in.readDouble();
+
+                int[][] tile;
+                try {
+                    tile = mandelCalc.calcRegionParallel(kernel, xResolution, yResolution, startX, startY, width,
+                            height, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared);
+                } catch (Exception e) {
+                    out.writeInt(STATUS_ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                    out.flush();
+                    continue;
+                }
+
+                out.writeInt(STATUS_OK);
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        out.writeInt(tile[y][x]);
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("TileWorker handleConnection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Main method, starts a worker listening on the given port.
+     *
+     * @param args port
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: TileWorker port");
+            return;
+        }
+        new TileWorker(Integer.parseInt(args[0])).serve();
+    }
+}
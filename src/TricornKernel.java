@@ -0,0 +1,40 @@
+/**
+ * Kernel for the tricorn, Z_n+1 = conj(Z_n)^2 + C with Z starting at the origin.
+ */
+public final class TricornKernel implements FractalKernel {
+
+    @Override
+    public int iterate(double real, double imaginary, int maxIterations, double radiusSquared) {
+        int iterations = 0;
+        double zr = 0;
+        double zi = 0;
+        boolean outside = false;
+        while (iterations < maxIterations && !outside) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            double nzr = zr2 - zi2 + real;
+            double nzi = -2 * zr * zi + imaginary;
+            zr = nzr;
+            zi = nzi;
+            if ((zr2 + zi2) > radiusSquared)
+                outside = true;
+            iterations++;
+        }
+        return iterations;
+    }
+
+    @Override
+    public String getId() {
+        return "tricorn";
+    }
+
+    @Override
+    public double[] getInitialView() {
+        return new double[]{-2.2, 1.8, -2.0, 2.0};
+    }
+
+    @Override
+    public String toString() {
+        return "Tricorn";
+    }
+}
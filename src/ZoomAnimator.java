@@ -0,0 +1,278 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ZoomAnimator renders a zoom-in sequence towards a target point and streams each frame to a numbered png file.
+ * Frames are handed out in small runs of consecutive frames from a shared counter, so that threads which get cheap
+ * frames take more of them while every thread can still reuse the frame it rendered previously. The previous frame
+ * is scaled onto the new one as a first guess of where the set is, and pixels guessed to be inside are iterated with
+ * periodicity checking rather than all the way to the max iterations. The guess only changes how fast a pixel is
+ * calculated, never its value.
+ */
+public class ZoomAnimator {
+
+    // Number of consecutive frames handed to a thread at a time, each frame after the first reuses the one before
+    private static final int FRAMES_PER_CHUNK = 4;
+
+    private MandelbrotCalculator mandelCalc;
+
+    // Values describing the animation
+    private int width;
+    private int height;
+    private double min_real;
+    private double max_real;
+    private double min_imaginary;
+    private double max_imaginary;
+    private double target_real;
+    private double target_imaginary;
+    private int frameCount;
+    private double zoomPerFrame;
+    private int max_iterations;
+    private float colorHue = 3.0f;
+
+    /**
+     * Constructor, saves the start view and the point to zoom towards.
+     *
+     * @param width           Width of each frame in pixels.
+     * @param height          Height of each frame in pixels.
+     * @param minReal         Lower real bound of the first frame.
+     * @param maxReal         Upper real bound of the first frame.
+     * @param minImaginary    Lower imaginary bound of the first frame.
+     * @param maxImaginary    Upper imaginary bound of the first frame.
+     * @param targetReal      Real component of the point to zoom towards, stays fixed on screen.
+     * @param targetImaginary Imaginary component of the point to zoom towards, stays fixed on screen.
+     * @param frameCount      Number of frames to render.
+     * @param zoomPerFrame    Magnification between one frame and the next, eg 1.05.
+     * @param maxIterations   Max iterations used for every frame.
+     */
+    public ZoomAnimator(int width, int height, double minReal, double maxReal, double minImaginary,
+                        double maxImaginary, double targetReal, double targetImaginary, int frameCount,
+                        double zoomPerFrame, int maxIterations) {
+        this.mandelCalc = new MandelbrotCalculator();
+        this.width = width;
+        this.height = height;
+        this.min_real = minReal;
+        this.max_real = maxReal;
+        this.min_imaginary = minImaginary;
+        this.max_imaginary = maxImaginary;
+        this.target_real = targetReal;
+        this.target_imaginary = targetImaginary;
+        this.frameCount = frameCount;
+        this.zoomPerFrame = zoomPerFrame;
+        this.max_iterations = maxIterations;
+    }
+
+    /**
+     * Setter for the hue used when coloring the frames.
+     *
+     * @param colorHue New hue value, same meaning as in the Delegate panel.
+     */
+    public void setColorHue(float colorHue) {
+        this.colorHue = colorHue;
+    }
+
+    /**
+     * Renders every frame in parallel and writes them to the directory as frame_00000.png, frame_00001.png, ...
+     *
+     * @param outputDirectory Directory to write the image sequence to, created if it does not exist.
+     * @return The throughput achieved in frames per minute.
+     * @throws Exception If a frame could not be rendered or written.
+     */
+    public double render(File outputDirectory) throws Exception {
+        outputDirectory.mkdirs();
+
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), frameCount);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        ArrayList<Future<?>> results = new ArrayList<>();
+
+        long start = System.nanoTime();
+
+        // Each thread takes the next run of frames until none are left, as some frames cost far more than others
+        AtomicInteger nextFrame = new AtomicInteger();
+        for (int thread = 0; thread < threads; thread++) {
+            results.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int from;
+                    while ((from = nextFrame.getAndAdd(FRAMES_PER_CHUNK)) < frameCount) {
+                        renderFrames(from, Math.min(from + FRAMES_PER_CHUNK, frameCount), outputDirectory);
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        double minutes = (System.nanoTime() - start) / 60e9;
+        return frameCount / minutes;
+    }
+
+    /**
+     * Renders the frames in range [from, to) in order, reusing each frame as the guess for the next.
+     *
+     * @param from            Index of the first frame to render.
+     * @param to              Index after the last frame to render.
+     * @param outputDirectory Directory to write the frames to.
+     */
+    private void renderFrames(int from, int to, File outputDirectory) {
+        int[][] previous = null;
+        double[] previousView = null;
+
+        for (int frame = from; frame < to; frame++) {
+            double[] view = getView(frame);
+            int[][] points = renderFrame(view, previous, previousView);
+
+            File file = new File(outputDirectory, String.format("frame_%05d.png", frame));
+            try {
+                ImageIO.write(createImage(points), "png", file);
+            } catch (Exception e) {
+                throw new IllegalStateException("ZoomAnimator renderFrames: " + e.getMessage(), e);
+            }
+
+            previous = points;
+            previousView = view;
+        }
+    }
+
+    /**
+     * Works out the bounds of a frame. The target point stays at the same place on screen while the
+     * width and height of the view shrink by zoomPerFrame every frame.
+     *
+     * @param frame Index of the frame.
+     * @return Array of {min_real, max_real, min_imaginary, max_imaginary} for the frame.
+     */
+    double[] getView(int frame) {
+        double scale = 1.0 / Math.pow(zoomPerFrame, frame);
+        return new double[]{
+                target_real + (min_real - target_real) * scale,
+                target_real + (max_real - target_real) * scale,
+                target_imaginary + (min_imaginary - target_imaginary) * scale,
+                target_imaginary + (max_imaginary - target_imaginary) * scale
+        };
+    }
+
+    /**
+     * Renders one frame. The previous frame is scaled onto this one as a guess of which pixels are inside the set,
+     * and those pixels are iterated with periodicity checking so that they stop as soon as their orbit repeats
+     * instead of running to the max iterations. Every pixel is still iterated, so the guess never changes the
+     * output, which is exactly that of calcMandelbrotSet for the same bounds.
+     *
+     * @param view         Bounds of the frame to render.
+     * @param previous     Iterations of the previous frame, or null if there is no guess.
+     * @param previousView Bounds of the previous frame, or null if there is no guess.
+     * @return Array of int[y][x] iteration values for the frame.
+     */
+    int[][] renderFrame(double[] view, int[][] previous, double[] previousView) {
+        int[][] points = new int[height][width];
+
+        double realStep = (view[1] - view[0]) / width;
+        double imaginaryStep = (view[3] - view[2]) / height;
+
+        // Map pixels of this frame to pixels of the previous frame
+        int previousHeight = previous == null ? 0 : previous.length;
+        int previousWidth = previous == null ? 0 : previous[0].length;
+        double scaleX = 0;
+        double scaleY = 0;
+        double offsetX = 0;
+        double offsetY = 0;
+        if (previous != null) {
+            double previousRealStep = (previousView[1] - previousView[0]) / previousWidth;
+            double previousImaginaryStep = (previousView[3] - previousView[2]) / previousHeight;
+            scaleX = realStep / previousRealStep;
+            scaleY = imaginaryStep / previousImaginaryStep;
+            offsetX = (view[0] - previousView[0]) / previousRealStep;
+            offsetY = (view[2] - previousView[2]) / previousImaginaryStep;
+        }
+
+        for (int y = 0; y < height; y++) {
+            double cImaginary = view[2] + y * imaginaryStep;
+            int previousY = (int) Math.floor(offsetY + y * scaleY);
+            int[] previousRow = previous != null && previousY >= 0 && previousY < previousHeight
+                    ? previous[previousY] : null;
+
+            for (int x = 0; x < width; x++) {
+                double cReal = view[0] + x * realStep;
+                int previousX = (int) Math.floor(offsetX + x * scaleX);
+                boolean guessInside = previousRow != null && previousX >= 0 && previousX < previousWidth
+                        && previousRow[previousX] == max_iterations;
+
+                if (guessInside) {
+                    points[y][x] = mandelCalc.calcMandelPeriodic(cReal, cImaginary, max_iterations,
+                            MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+                } else {
+                    points[y][x] = mandelCalc.calcMandel(cReal, cImaginary, max_iterations,
+                            MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+                }
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Colors a frame with the same HSB mapping the Delegate panel uses.
+     *
+     * @param points Array of int[y][x] iteration values.
+     * @return Image of the frame.
+     */
+    private BufferedImage createImage(int[][] points) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] rgb = new int[width * height];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = points[y][x];
+                if (value != max_iterations) {
+                    rgb[y * width + x] = Color.HSBtoRGB((float) value * colorHue / (float) max_iterations, 1.0f, 1.0f);
+                }
+            }
+        }
+
+        image.setRGB(0, 0, width, height, rgb, 0, width);
+        return image;
+    }
+
+    /**
+     * Renders a zoom animation from the initial view without the GUI.
+     *
+     * @param args outputDirectory frameCount targetReal targetImaginary [zoomPerFrame] [width height] [maxIterations]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: ZoomAnimator outputDirectory frameCount targetReal targetImaginary " +
+                    "[zoomPerFrame] [width height] [maxIterations]");
+            return;
+        }
+
+        File outputDirectory = new File(args[0]);
+        int frameCount = Integer.parseInt(args[1]);
+        double targetReal = Double.parseDouble(args[2]);
+        double targetImaginary = Double.parseDouble(args[3]);
+        double zoomPerFrame = args.length > 4 ? Double.parseDouble(args[4]) : 1.05;
+        int width = args.length > 6 ? Integer.parseInt(args[5]) : 800;
+        int height = args.length > 6 ? Integer.parseInt(args[6]) : 800;
+        int maxIterations = args.length > 7 ? Integer.parseInt(args[7]) : MandelbrotCalculator.INITIAL_MAX_ITERATIONS;
+
+        ZoomAnimator animator = new ZoomAnimator(width, height,
+                MandelbrotCalculator.INITIAL_MIN_REAL,
+                MandelbrotCalculator.INITIAL_MAX_REAL,
+                MandelbrotCalculator.INITIAL_MIN_IMAGINARY,
+                MandelbrotCalculator.INITIAL_MAX_IMAGINARY,
+                targetReal, targetImaginary, frameCount, zoomPerFrame, maxIterations);
+
+        double framesPerMinute = animator.render(outputDirectory);
+        System.out.println(String.format("Rendered %d frames at %.1f frames per minute", frameCount, framesPerMinute));
+    }
+}